@@ -1,11 +1,14 @@
 package com.nostros;
 
 import android.os.Bundle;
+import android.view.View;
+import android.view.ViewTreeObserver;
 
 import com.facebook.react.ReactActivity;
 import com.facebook.react.ReactActivityDelegate;
 import com.facebook.react.defaults.DefaultNewArchitectureEntryPoint;
 import com.facebook.react.defaults.DefaultReactActivityDelegate;
+import com.nostros.classes.StartupMetrics;
 
 public class MainActivity extends ReactActivity {
 
@@ -18,6 +21,20 @@ public class MainActivity extends ReactActivity {
     return "Nostros";
   }
 
+  @Override
+  protected void onCreate(Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+    final View decorView = getWindow().getDecorView();
+    decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+      @Override
+      public boolean onPreDraw() {
+        StartupMetrics.markFirstFrame();
+        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+        return true;
+      }
+    });
+  }
+
   /**
    * Returns the instance of the {@link ReactActivityDelegate}. Here we use a util class {@link
    * DefaultReactActivityDelegate} which allows you to easily enable Fabric and Concurrent React
@@ -24,6 +24,7 @@ public class NostrosPackage implements ReactPackage {
         List<NativeModule> modules = new ArrayList<>();
 
         Database database = new Database(reactContext.getFilesDir().getAbsolutePath());
+        database.openAsync();
         modules.add(new DatabaseModule(reactContext, database));
         modules.add(new RelayPoolModule(reactContext, database));
 
@@ -0,0 +1,215 @@
+package com.nostros.classes;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Coalesces saved events, notifications, confirmations and EOSEs into one WebsocketBatch
+// message per window. A window of 0 falls back to one bridge message per item.
+public class BridgeEmitter {
+    private static final int DEFAULT_WINDOW_MS = 50;
+    private static final int DEFAULT_MAX_BATCH = 500;
+
+    private final ReactApplicationContext context;
+    private final ScheduledExecutorService scheduler;
+    private final Object lock = new Object();
+    private int windowMs = DEFAULT_WINDOW_MS;
+    private int maxBatch = DEFAULT_MAX_BATCH;
+    private List<String> eventIds = new ArrayList<>();
+    private List<List<String>> eventSubscriptions = new ArrayList<>();
+    private List<String[]> notifications = new ArrayList<>();
+    private List<String> confirmations = new ArrayList<>();
+    private List<String[]> eoses = new ArrayList<>();
+    private List<String> completed = new ArrayList<>();
+    private boolean flushScheduled;
+    private boolean flushQueued;
+    private boolean closed;
+
+    public BridgeEmitter(ReactApplicationContext reactContext) {
+        context = reactContext;
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    public void configure(int window, int max) {
+        synchronized (lock) {
+            windowMs = Math.max(0, window);
+            maxBatch = Math.max(1, max);
+            if (closed) {
+                return;
+            }
+            scheduler.execute(this::flush);
+        }
+    }
+
+    // Items still waiting for their window are dropped with the JS context they were meant for.
+    public void shutdown() {
+        synchronized (lock) {
+            closed = true;
+            scheduler.shutdownNow();
+        }
+    }
+
+    // subIds are the open subscriptions the event satisfied.
+    public void event(String eventId, List<String> subIds) {
+        synchronized (lock) {
+            if (windowMs > 0) {
+                eventIds.add(eventId);
+                eventSubscriptions.add(subIds);
+                scheduleFlush();
+                return;
+            }
+        }
+        WritableMap payload = Arguments.createMap();
+        payload.putString("eventId", eventId);
+        payload.putArray("subIds", toArray(subIds));
+        emit("WebsocketEvent", payload);
+    }
+
+    public void notification(String eventId, String kind) {
+        synchronized (lock) {
+            if (windowMs > 0) {
+                notifications.add(new String[] {eventId, kind});
+                scheduleFlush();
+                return;
+            }
+        }
+        WritableMap payload = Arguments.createMap();
+        payload.putString("eventId", eventId);
+        payload.putString("kind", kind);
+        emit("WebsocketNotification", payload);
+    }
+
+    public void confirmation(String eventId) {
+        synchronized (lock) {
+            if (windowMs > 0) {
+                confirmations.add(eventId);
+                scheduleFlush();
+                return;
+            }
+        }
+        WritableMap payload = Arguments.createMap();
+        payload.putString("eventId", eventId);
+        emit("WebsocketConfirmation", payload);
+    }
+
+    // EOSE from one relay; complete once every relay holding the subscription has sent it.
+    public void eose(String subId, String url, boolean complete) {
+        synchronized (lock) {
+            if (windowMs > 0) {
+                eoses.add(new String[] {subId, url});
+                if (complete) {
+                    completed.add(subId);
+                }
+                scheduleFlush();
+                return;
+            }
+        }
+        WritableMap payload = Arguments.createMap();
+        payload.putString("subId", subId);
+        payload.putString("url", url);
+        payload.putBoolean("complete", complete);
+        emit("WebsocketEose", payload);
+    }
+
+    public void emit(String eventName, WritableMap payload) {
+        context
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(eventName, payload);
+    }
+
+    private void scheduleFlush() {
+        if (closed) {
+            return;
+        }
+        int pending = eventIds.size() + notifications.size() + confirmations.size() + eoses.size();
+        if (pending >= maxBatch && !flushQueued) {
+            flushQueued = true;
+            scheduler.execute(this::flush);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        List<String> batchEventIds;
+        List<List<String>> batchEventSubscriptions;
+        List<String[]> batchNotifications;
+        List<String> batchConfirmations;
+        List<String[]> batchEoses;
+        List<String> batchCompleted;
+        synchronized (lock) {
+            flushScheduled = false;
+            flushQueued = false;
+            if (eventIds.isEmpty() && notifications.isEmpty() && confirmations.isEmpty() && eoses.isEmpty()) {
+                return;
+            }
+            batchEventIds = eventIds;
+            batchEventSubscriptions = eventSubscriptions;
+            batchNotifications = notifications;
+            batchConfirmations = confirmations;
+            batchEoses = eoses;
+            batchCompleted = completed;
+            eventIds = new ArrayList<>();
+            eventSubscriptions = new ArrayList<>();
+            notifications = new ArrayList<>();
+            confirmations = new ArrayList<>();
+            eoses = new ArrayList<>();
+            completed = new ArrayList<>();
+        }
+
+        WritableArray eventIdsArray = toArray(batchEventIds);
+        WritableArray eventSubscriptionsArray = Arguments.createArray();
+        for (List<String> subIds : batchEventSubscriptions) {
+            eventSubscriptionsArray.pushArray(toArray(subIds));
+        }
+        WritableArray notificationsArray = Arguments.createArray();
+        for (String[] notification : batchNotifications) {
+            WritableMap item = Arguments.createMap();
+            item.putString("eventId", notification[0]);
+            item.putString("kind", notification[1]);
+            notificationsArray.pushMap(item);
+        }
+        WritableArray confirmationsArray = Arguments.createArray();
+        for (String eventId : batchConfirmations) {
+            confirmationsArray.pushString(eventId);
+        }
+
+        WritableArray eosesArray = Arguments.createArray();
+        for (String[] eose : batchEoses) {
+            WritableMap item = Arguments.createMap();
+            item.putString("subId", eose[0]);
+            item.putString("url", eose[1]);
+            eosesArray.pushMap(item);
+        }
+        WritableArray completedArray = Arguments.createArray();
+        for (String subId : batchCompleted) {
+            completedArray.pushString(subId);
+        }
+
+        WritableMap payload = Arguments.createMap();
+        payload.putArray("eventIds", eventIdsArray);
+        payload.putArray("eventSubscriptions", eventSubscriptionsArray);
+        payload.putArray("notifications", notificationsArray);
+        payload.putArray("confirmations", confirmationsArray);
+        payload.putArray("eoses", eosesArray);
+        payload.putArray("backfillComplete", completedArray);
+        emit("WebsocketBatch", payload);
+    }
+
+    private static WritableArray toArray(List<String> values) {
+        WritableArray array = Arguments.createArray();
+        for (String value : values) {
+            array.pushString(value);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,182 @@
+package com.nostros.classes;
+
+import android.util.Log;
+
+import com.neovisionaries.ws.client.WebSocket;
+import com.neovisionaries.ws.client.WebSocketAdapter;
+import com.neovisionaries.ws.client.WebSocketException;
+import com.neovisionaries.ws.client.WebSocketFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Shared infrastructure for every relay socket: one configured factory, a small
+// connect pool instead of a ConnectThread per attempt, and one keepalive task instead of
+// the ping and pong timer threads nv-websocket-client starts per socket. The keepalive
+// interval follows the app's foreground state, and idle relays are parked on each tick.
+public class ConnectionManager {
+    private static final int CONNECT_TIMEOUT_MS = 15 * 1000;
+    private static final int CONNECT_THREADS = 4;
+    private static final long FOREGROUND_PING_INTERVAL_MS = 25 * 1000;
+    private static final long BACKGROUND_PING_INTERVAL_MS = 4 * 60 * 1000;
+    private static final long IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+    // nv-websocket-client always runs one reading and one writing thread per open socket.
+    private static final int THREADS_PER_SOCKET = 2;
+
+    private final WebSocketFactory factory;
+    private final ExecutorService connectExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final ReconnectScheduler reconnectScheduler;
+    private final Set<WebSocket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<WebSocket, Boolean>());
+    private final Set<KeepaliveClient> clients = Collections.newSetFromMap(new ConcurrentHashMap<KeepaliveClient, Boolean>());
+    private volatile boolean foreground = true;
+    private volatile long foregroundPingIntervalMs = FOREGROUND_PING_INTERVAL_MS;
+    private volatile long backgroundPingIntervalMs = BACKGROUND_PING_INTERVAL_MS;
+    private volatile long idleTimeoutMs = IDLE_TIMEOUT_MS;
+    private ScheduledFuture<?> keepalive;
+
+    public interface KeepaliveClient {
+        // Pings the relay, or parks it when it has been idle for longer than idleTimeoutMs.
+        void keepalive(boolean foreground, long idleTimeoutMs);
+        void resume();
+    }
+
+    public ConnectionManager() {
+        factory = new WebSocketFactory().setConnectionTimeout(CONNECT_TIMEOUT_MS);
+        connectExecutor = Executors.newFixedThreadPool(CONNECT_THREADS);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        reconnectScheduler = new ReconnectScheduler(scheduler);
+        scheduleKeepalive();
+    }
+
+    public void register(KeepaliveClient client) {
+        clients.add(client);
+    }
+
+    public void unregister(KeepaliveClient client) {
+        clients.remove(client);
+    }
+
+    // Coming back to the foreground pings right away so dead sockets are noticed before the user does.
+    public void setForeground(boolean isForeground) {
+        foreground = isForeground;
+        if (isForeground) {
+            for (KeepaliveClient client : clients) {
+                client.resume();
+            }
+        }
+        scheduleKeepalive();
+    }
+
+    public void configureKeepalive(long foregroundIntervalMs, long backgroundIntervalMs, long idleMs) {
+        foregroundPingIntervalMs = Math.max(5000, foregroundIntervalMs);
+        backgroundPingIntervalMs = Math.max(5000, backgroundIntervalMs);
+        idleTimeoutMs = Math.max(0, idleMs);
+        scheduleKeepalive();
+    }
+
+    public boolean isForeground() {
+        return foreground;
+    }
+
+    public long getPingIntervalMs() {
+        return foreground ? foregroundPingIntervalMs : backgroundPingIntervalMs;
+    }
+
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public ReconnectScheduler getReconnectScheduler() {
+        return reconnectScheduler;
+    }
+
+    public WebSocket createSocket(String url, WebSocketAdapter listener) throws IOException {
+        WebSocket socket = factory.createSocket(url);
+        socket.setMissingCloseFrameAllowed(true);
+        socket.addListener(listener);
+        sockets.add(socket);
+        return socket;
+    }
+
+    // WebSocket.connect() does not notify onConnectError itself, only connectAsynchronously does.
+    public void connect(WebSocket socket, WebSocketAdapter listener) {
+        connectExecutor.execute(() -> {
+            try {
+                socket.connect();
+            } catch (WebSocketException e) {
+                try {
+                    listener.onConnectError(socket, e);
+                } catch (Exception listenerException) {
+                    Log.d("Websocket", listenerException.toString());
+                }
+            }
+        });
+    }
+
+    public ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        return scheduler.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void release(WebSocket socket) {
+        sockets.remove(socket);
+        socket.disconnect();
+    }
+
+    public int getSocketCount() {
+        return sockets.size();
+    }
+
+    public int getOpenCount() {
+        int open = 0;
+        for (WebSocket socket : sockets) {
+            if (socket.isOpen()) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    public int getSocketThreadCount() {
+        return getOpenCount() * THREADS_PER_SOCKET;
+    }
+
+    public int getSharedThreadCount() {
+        return CONNECT_THREADS + 1;
+    }
+
+    // Stops the shared threads and closes every socket; the manager is not usable afterwards.
+    public void shutdown() {
+        scheduler.shutdownNow();
+        connectExecutor.shutdownNow();
+        for (WebSocket socket : sockets) {
+            release(socket);
+        }
+        clients.clear();
+    }
+
+    private synchronized void scheduleKeepalive() {
+        if (keepalive != null) {
+            keepalive.cancel(false);
+        }
+        long interval = getPingIntervalMs();
+        keepalive = scheduler.scheduleWithFixedDelay(this::keepaliveAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void keepaliveAll() {
+        for (KeepaliveClient client : clients) {
+            try {
+                client.keepalive(foreground, idleTimeoutMs);
+            } catch (RuntimeException e) {
+                Log.d("Websocket", e.toString());
+            }
+        }
+    }
+}
@@ -5,24 +5,287 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
-import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactMethod;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nostr.util.NostrUtil;
 
 public class Database {
+    // Kinds Event.save keeps as whole events, by table
+    private static final Map<String, String> EVENT_TABLES = new HashMap<>();
+    static {
+        EVENT_TABLES.put("1", "nostros_notes");
+        EVENT_TABLES.put("2", "nostros_notes");
+        EVENT_TABLES.put("4", "nostros_direct_messages");
+        EVENT_TABLES.put("7", "nostros_reactions");
+        EVENT_TABLES.put("42", "nostros_group_messages");
+        EVENT_TABLES.put("9735", "nostros_zaps");
+        EVENT_TABLES.put("10000", "nostros_lists");
+        EVENT_TABLES.put("10002", "nostros_relay_metadata");
+        EVENT_TABLES.put("10003", "nostros_lists");
+    }
+
+    // Large enough that bursts are checkpointed on idle, small enough to bound the WAL file
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 4000;
+    // PRAGMA user_version once every migration below has been applied
+    private static final int SCHEMA_VERSION = 8;
+    // Keeps tag values plus an authors chunk under SQLite's 999 bound arguments
+    private static final int MAX_TAG_VALUES = 400;
+
     public SQLiteDatabase instance;
+    public EventStatements statements;
+    public EventTags eventTags;
+    private String journalMode;
+    private volatile boolean walDirty;
+    private final AtomicLong lockWaits = new AtomicLong();
+    private final AtomicLong lockWaitNanos = new AtomicLong();
+    private final AtomicLong maxLockWaitNanos = new AtomicLong();
+    private final AtomicLong checkpoints = new AtomicLong();
+    private final AtomicLong checkpointNanos = new AtomicLong();
+    private volatile long walFrames;
+    private int migratedFrom;
+    private long openNanos;
+    private final String path;
+    private final List<PendingTask> pending = new ArrayList<>();
+    private boolean ready;
+    private boolean opening;
+    private boolean closed;
+    private String openError;
+
+    private static class PendingTask {
+        final Runnable task;
+        final Runnable failed;
+
+        PendingTask(Runnable task, Runnable failed) {
+            this.task = task;
+            this.failed = failed;
+        }
+    }
 
     public Database(String absoluteFilesPath) {
-        instance = SQLiteDatabase.openDatabase( absoluteFilesPath + "/nostros.sqlite", null, SQLiteDatabase.CREATE_IF_NECESSARY);
-        instance.execSQL("CREATE TABLE IF NOT EXISTS nostros_notes(\n" +
+        path = absoluteFilesPath + "/nostros.sqlite";
+    }
+
+    // Opens and migrates off the startup path; module calls made meanwhile wait in whenReady.
+    // After a failed open it can be called again to retry, the queued calls still waiting.
+    public void openAsync() {
+        synchronized (pending) {
+            if (ready || opening || closed) {
+                return;
+            }
+            opening = true;
+            openError = null;
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.execute(() -> {
+            try {
+                open();
+            } catch (RuntimeException e) {
+                Log.d("Database", "OPEN ERROR " + e);
+                if (instance != null) {
+                    instance.close();
+                    instance = null;
+                }
+                failPending(e.toString());
+                return;
+            }
+            StartupMetrics.markDatabaseReady();
+            runPending();
+            if (isClosed()) {
+                closeInstance();
+                return;
+            }
+            if (eventTags.isPending()) {
+                eventTags.rebuild();
+            }
+        });
+        executor.shutdown();
+    }
+
+    // Runs the task now if the database is open, otherwise once it is, in call order.
+    public void whenReady(Runnable task) {
+        whenReady(task, null);
+    }
+
+    // As above, but a failed open runs failed instead of keeping the task for the next attempt.
+    public void whenReady(Runnable task, Runnable failed) {
+        synchronized (pending) {
+            if (!ready) {
+                if (failed != null && openError != null && !opening) {
+                    failed.run();
+                } else {
+                    pending.add(new PendingTask(task, failed));
+                }
+                return;
+            }
+        }
+        task.run();
+    }
+
+    // Closes the connection once the modules using it are gone, e.g. on a JS reload. An open
+    // still in progress closes it when it completes.
+    public void close() {
+        synchronized (pending) {
+            closed = true;
+            pending.clear();
+            if (opening) {
+                return;
+            }
+        }
+        closeInstance();
+    }
+
+    public boolean isClosed() {
+        synchronized (pending) {
+            return closed;
+        }
+    }
+
+    private void closeInstance() {
+        synchronized (pending) {
+            if (instance != null && instance.isOpen()) {
+                statements.close();
+                instance.close();
+            }
+        }
+    }
+
+    // Error of the last failed open, or null.
+    public String getOpenError() {
+        synchronized (pending) {
+            return openError;
+        }
+    }
+
+    private void failPending(String error) {
+        List<Runnable> failures = new ArrayList<>();
+        synchronized (pending) {
+            opening = false;
+            openError = error;
+            Iterator<PendingTask> iterator = pending.iterator();
+            while (iterator.hasNext()) {
+                PendingTask pendingTask = iterator.next();
+                if (pendingTask.failed != null) {
+                    failures.add(pendingTask.failed);
+                    iterator.remove();
+                }
+            }
+        }
+        for (Runnable failed : failures) {
+            try {
+                failed.run();
+            } catch (RuntimeException e) {
+                Log.d("Database", "PENDING ERROR " + e);
+            }
+        }
+    }
+
+    private void runPending() {
+        while (true) {
+            List<PendingTask> tasks;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    ready = true;
+                    opening = false;
+                    return;
+                }
+                tasks = new ArrayList<>(pending);
+                pending.clear();
+            }
+            for (PendingTask pendingTask : tasks) {
+                try {
+                    pendingTask.task.run();
+                } catch (RuntimeException e) {
+                    Log.d("Database", "PENDING ERROR " + e);
+                }
+            }
+        }
+    }
+
+    public void open() {
+        long start = System.nanoTime();
+        // WAL keeps a single writer connection and lets SQLite hand reads, ours and
+        // the JS connection's, to reader connections that no longer wait on it.
+        instance = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING);
+        configure();
+        migrate();
+        statements = new EventStatements(instance);
+        eventTags = new EventTags(this);
+        openNanos = System.nanoTime() - start;
+        Log.d("Database", "open " + (openNanos / 1000000) + "ms, schema " + migratedFrom + " -> " + instance.getVersion());
+    }
+
+    // Applies the steps above user_version in one transaction; a warm start only reads the version.
+    // Steps after the legacy one are strict: a failure rolls back and leaves the version unchanged.
+    private void migrate() {
+        migratedFrom = instance.getVersion();
+        if (migratedFrom >= SCHEMA_VERSION) {
+            return;
+        }
+        instance.beginTransaction();
+        try {
+            if (migratedFrom < 1) {
+                migrateLegacy();
+            }
+            if (migratedFrom < 2) {
+                compactNotesRelays();
+            }
+            if (migratedFrom < 3) {
+                createEventTags();
+            }
+            if (migratedFrom < 4) {
+                normalizeHashtags();
+            }
+            if (migratedFrom < 5) {
+                createRelayCursors();
+            }
+            if (migratedFrom < 6) {
+                addColumn("nostros_relays", "stats", "TEXT");
+            }
+            if (migratedFrom < 7) {
+                addColumn("nostros_relays", "compression", "INT DEFAULT 0");
+            }
+            if (migratedFrom < 8) {
+                createCounts();
+            }
+            instance.setVersion(SCHEMA_VERSION);
+            instance.setTransactionSuccessful();
+        } finally {
+            instance.endTransaction();
+        }
+    }
+
+    // Runs the statements in order, stopping at the first one that fails.
+    private void tolerant(String... queries) {
+        for (String query : queries) {
+            try {
+                instance.execSQL(query);
+            } catch (SQLException e) {
+                return;
+            }
+        }
+    }
+
+    // Schema from before versioned migrations, for installs still at user_version 0. Each
+    // statement may already have been applied, so failures only skip that statement.
+    private void migrateLegacy() {
+        tolerant("CREATE TABLE IF NOT EXISTS nostros_notes(\n" +
                 "          id TEXT PRIMARY KEY NOT NULL, \n" +
                 "          content TEXT NOT NULL,\n" +
                 "          created_at INT NOT NULL,\n" +
@@ -33,7 +296,7 @@ public class Database {
                 "          main_event_id TEXT,\n" +
                 "          reply_event_id TEXT\n" +
                 "        );");
-        instance.execSQL("CREATE TABLE IF NOT EXISTS nostros_users(\n" +
+        tolerant("CREATE TABLE IF NOT EXISTS nostros_users(\n" +
                 "        id TEXT PRIMARY KEY NOT NULL,\n" +
                 "        name TEXT,\n" +
                 "        picture TEXT,\n" +
@@ -42,11 +305,11 @@ public class Database {
                 "        contact INT DEFAULT 0,\n" +
                 "        follower INT DEFAULT 0\n" +
                 "      );");
-        instance.execSQL("CREATE TABLE IF NOT EXISTS nostros_relays(\n" +
+        tolerant("CREATE TABLE IF NOT EXISTS nostros_relays(\n" +
                 "          url TEXT PRIMARY KEY NOT NULL,\n" +
                 "          pet INTEGER\n" +
                 "        );");
-        instance.execSQL("CREATE TABLE IF NOT EXISTS nostros_direct_messages(\n" +
+        tolerant("CREATE TABLE IF NOT EXISTS nostros_direct_messages(\n" +
                 "          id TEXT PRIMARY KEY NOT NULL, \n" +
                 "          content TEXT NOT NULL,\n" +
                 "          created_at INT NOT NULL,\n" +
@@ -57,18 +320,11 @@ public class Database {
                 "          conversation_id TEXT NOT NULL,\n" +
                 "          read INT DEFAULT 0\n" +
                 "        );");
-        try {
-            instance.execSQL("ALTER TABLE nostros_notes ADD COLUMN user_mentioned INT DEFAULT 0;");
-            instance.execSQL("ALTER TABLE nostros_notes ADD COLUMN seen INT DEFAULT 0;");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("ALTER TABLE nostros_users ADD COLUMN lnurl TEXT;");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("ALTER TABLE nostros_users ADD COLUMN created_at INT DEFAULT 0;");
-        } catch (SQLException e) { }
-        try {
-        instance.execSQL("CREATE TABLE IF NOT EXISTS nostros_reactions(\n" +
+        tolerant("ALTER TABLE nostros_notes ADD COLUMN user_mentioned INT DEFAULT 0;");
+        tolerant("ALTER TABLE nostros_notes ADD COLUMN seen INT DEFAULT 0;");
+        tolerant("ALTER TABLE nostros_users ADD COLUMN lnurl TEXT;");
+        tolerant("ALTER TABLE nostros_users ADD COLUMN created_at INT DEFAULT 0;");
+        tolerant("CREATE TABLE IF NOT EXISTS nostros_reactions(\n" +
                 "          id TEXT PRIMARY KEY NOT NULL, \n" +
                 "          content TEXT NOT NULL,\n" +
                 "          created_at INT NOT NULL,\n" +
@@ -80,196 +336,510 @@ public class Database {
                 "          reacted_event_id TEXT,\n" +
                 "          reacted_user_id TEXT\n" +
                 "        );");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("ALTER TABLE nostros_users ADD COLUMN nip05 TEXT;");
-            instance.execSQL("ALTER TABLE nostros_users ADD COLUMN valid_nip05 INT DEFAULT 0;");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("ALTER TABLE nostros_notes ADD COLUMN repost_id TEXT;");
-            instance.execSQL("ALTER TABLE nostros_relays ADD COLUMN active INT DEFAULT 1;");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("DROP TABLE IF EXISTS nostros_config;");
-            instance.execSQL("ALTER TABLE nostros_users ADD COLUMN blocked INT DEFAULT 0;");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("CREATE TABLE IF NOT EXISTS nostros_notes_relays(\n" +
-                    "          note_id TEXT NOT NULL,\n" +
-                    "          pubkey TEXT NOT NULL,\n" +
-                    "          relay_url INT NOT NULL,\n" +
-                    "          PRIMARY KEY (note_id, relay_url)\n" +
-                    "        );");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("ALTER TABLE nostros_users ADD COLUMN pet_at INT;");
-            instance.execSQL("ALTER TABLE nostros_users ADD COLUMN follower_at INT;");
-            instance.execSQL("ALTER TABLE nostros_relays ADD COLUMN global_feed INT DEFAULT 1;");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("ALTER TABLE nostros_relays ADD COLUMN resilient INT DEFAULT 0;");
-            instance.execSQL("ALTER TABLE nostros_relays ADD COLUMN manual INT DEFAULT 1;");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("CREATE TABLE IF NOT EXISTS nostros_group_meta(\n" +
-                    "          id TEXT PRIMARY KEY NOT NULL, \n" +
-                    "          content TEXT,\n" +
-                    "          created_at INT,\n" +
-                    "          kind INT,\n" +
-                    "          pubkey TEXT,\n" +
-                    "          sig TEXT,\n" +
-                    "          tags TEXT,\n" +
-                    "          name TEXT,\n" +
-                    "          about TEXT,\n" +
-                    "          picture TEXT\n" +
-                    "        );");
-            instance.execSQL("CREATE TABLE IF NOT EXISTS nostros_group_messages(\n" +
-                    "          id TEXT PRIMARY KEY NOT NULL, \n" +
-                    "          content TEXT NOT NULL,\n" +
-                    "          created_at INT NOT NULL,\n" +
-                    "          kind INT NOT NULL,\n" +
-                    "          pubkey TEXT NOT NULL,\n" +
-                    "          sig TEXT NOT NULL,\n" +
-                    "          tags TEXT NOT NULL,\n" +
-                    "          group_id TEXT NOT NULL,\n" +
-                    "          hidden INT DEFAULT 0\n" +
-                    "        );");
-            instance.execSQL("ALTER TABLE nostros_users ADD COLUMN muted_groups INT DEFAULT 0;");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("ALTER TABLE nostros_group_meta ADD COLUMN deleted INT DEFAULT 0;");
-            instance.execSQL("ALTER TABLE nostros_group_messages ADD COLUMN read INT DEFAULT 0;");
-            instance.execSQL("ALTER TABLE nostros_group_messages ADD COLUMN user_mentioned INT DEFAULT 0;");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("ALTER TABLE nostros_relays ADD COLUMN updated_at INT DEFAULT 0;");
-            instance.execSQL("ALTER TABLE nostros_relays ADD COLUMN mode TEXT;");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("ALTER TABLE nostros_users ADD COLUMN ln_address TEXT;");
-            instance.execSQL("UPDATE nostros_users SET ln_address=lnurl;");
-            instance.execSQL("ALTER TABLE nostros_users ADD COLUMN zap_pubkey TEXT;");
-            instance.execSQL("CREATE TABLE IF NOT EXISTS nostros_zaps(\n" +
-                    "          id TEXT PRIMARY KEY NOT NULL, \n" +
-                    "          content TEXT NOT NULL,\n" +
-                    "          created_at INT NOT NULL,\n" +
-                    "          kind INT NOT NULL,\n" +
-                    "          pubkey TEXT NOT NULL,\n" +
-                    "          sig TEXT NOT NULL,\n" +
-                    "          tags TEXT NOT NULL,\n" +
-                    "          amount FLOAT NOT NULL,\n" +
-                    "          zapped_user_id TEXT NOT NULL,\n" +
-                    "          zapper_user_id TEXT NOT NULL,\n" +
-                    "          zapped_event_id TEXT\n" +
-                    "        );");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("ALTER TABLE nostros_relays ADD COLUMN deleted_at INT DEFAULT 0;");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("DROP INDEX nostros_notes_notifications_index;");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("CREATE INDEX nostros_users_names_index ON nostros_users(id, name); ");
-            instance.execSQL("CREATE INDEX nostros_users_contacts_index ON nostros_users(id, contact); ");
-            instance.execSQL("CREATE INDEX nostros_users_blocked_index ON nostros_users(id, blocked); ");
-            instance.execSQL("CREATE INDEX nostros_users_muted_index ON nostros_users(id, muted_groups); ");
-
-            instance.execSQL("CREATE INDEX nostros_notes_home_index ON nostros_notes(pubkey, created_at, main_event_id, repost_id); ");
-            instance.execSQL("CREATE INDEX nostros_notes_notifications_index ON nostros_notes(pubkey, user_mentioned, reply_event_id, created_at); ");
-            instance.execSQL("CREATE INDEX nostros_notes_reply_index ON nostros_notes(reply_event_id); ");
-            instance.execSQL("CREATE INDEX nostros_notes_list_index ON nostros_notes(pubkey, created_at); ");
-            instance.execSQL("CREATE INDEX nostros_notes_repost_count_index ON nostros_notes(pubkey, repost_id, created_at); ");
-
-            instance.execSQL("CREATE INDEX nostros_group_messages_mentions_index ON nostros_group_messages(group_id, pubkey, created_at);");
-            instance.execSQL("CREATE INDEX nostros_group_messages_group_index ON nostros_group_messages(group_id, created_at);");
-            instance.execSQL("CREATE INDEX nostros_group_messages_feed_index ON nostros_group_messages(user_mentioned, read, group_id);");
-
-            instance.execSQL("CREATE INDEX nostros_notes_relays_notes_index ON nostros_notes_relays(note_id, relay_url);");
-            instance.execSQL("CREATE INDEX nostros_notes_relays_users_index ON nostros_notes_relays(pubkey, relay_url);");
-
-            instance.execSQL("CREATE INDEX nostros_direct_messages_feed_index ON nostros_direct_messages(pubkey, created_at); ");
-            instance.execSQL("CREATE INDEX nostros_direct_messages_notification_index ON nostros_direct_messages(pubkey, read); ");
-            instance.execSQL("CREATE INDEX nostros_direct_messages_conversation_index ON nostros_direct_messages(created_at, conversation_id); ");
-
-            instance.execSQL("CREATE INDEX nostros_zaps_list_index ON nostros_zaps(zapper_user_id);");
-            instance.execSQL("CREATE INDEX nostros_zaps_user_index ON nostros_zaps(zapper_user_id, zapped_event_id);");
-
-            // Previous
-            instance.execSQL("CREATE INDEX nostros_users_contact_follower_index ON nostros_users(contact, follower); ");
-            instance.execSQL("CREATE INDEX nostros_reactions_created_at_reacted_event_id_index ON nostros_reactions(created_at, reacted_event_id); ");
-            instance.execSQL("CREATE INDEX nostros_notes_pubkey_index ON nostros_notes(pubkey); ");
-            instance.execSQL("CREATE INDEX nostros_notes_main_event_id_index ON nostros_notes(main_event_id); ");
-            instance.execSQL("CREATE INDEX nostros_direct_messages_pubkey_index ON nostros_direct_messages(pubkey); ");
-            instance.execSQL("CREATE INDEX nostros_direct_messages_conversation_id_index ON nostros_direct_messages(conversation_id); ");
-            instance.execSQL("CREATE INDEX nostros_reactions_reacted_event_id_index ON nostros_reactions(reacted_event_id); ");
-            instance.execSQL("CREATE INDEX nostros_reactions_pubkey_index ON nostros_reactions(pubkey); ");
-            instance.execSQL("CREATE INDEX nostros_nostros_zaps_zapped_event_id_index ON nostros_zaps(zapped_event_id);");
-            instance.execSQL("CREATE INDEX nostros_users_contact_index ON nostros_users(contact); ");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("CREATE TABLE IF NOT EXISTS nostros_lists(\n" +
-                    "          id TEXT PRIMARY KEY NOT NULL, \n" +
-                    "          content TEXT NOT NULL,\n" +
-                    "          created_at INT NOT NULL,\n" +
-                    "          kind INT NOT NULL,\n" +
-                    "          pubkey TEXT NOT NULL,\n" +
-                    "          sig TEXT NOT NULL,\n" +
-                    "          tags TEXT NOT NULL\n" +
-                    "          );");
-            instance.execSQL("CREATE INDEX nostros_nostros_list_index ON nostros_lists(kind, pubkey);");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("ALTER TABLE nostros_lists ADD COLUMN list_tag TEXT;");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("CREATE TABLE IF NOT EXISTS nostros_relay_metadata(\n" +
-                    "          id TEXT PRIMARY KEY NOT NULL, \n" +
-                    "          content TEXT NOT NULL,\n" +
-                    "          created_at INT NOT NULL,\n" +
-                    "          kind INT NOT NULL,\n" +
-                    "          pubkey TEXT NOT NULL,\n" +
-                    "          sig TEXT NOT NULL,\n" +
-                    "          tags TEXT NOT NULL\n" +
-                    "          );");
-            instance.execSQL("CREATE INDEX nostros_relay_metadata_index ON nostros_relay_metadata(pubkey);");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("ALTER TABLE nostros_relays ADD COLUMN paid INT DEFAULT 0;");
-        } catch (SQLException e) { }
-        try {
-            instance.execSQL("ALTER TABLE nostros_zaps ADD COLUMN preimage TEXT;");
-        } catch (SQLException e) { }
+        tolerant("ALTER TABLE nostros_users ADD COLUMN nip05 TEXT;");
+        tolerant("ALTER TABLE nostros_users ADD COLUMN valid_nip05 INT DEFAULT 0;");
+        tolerant("ALTER TABLE nostros_notes ADD COLUMN repost_id TEXT;");
+        tolerant("ALTER TABLE nostros_relays ADD COLUMN active INT DEFAULT 1;");
+        tolerant("DROP TABLE IF EXISTS nostros_config;");
+        tolerant("ALTER TABLE nostros_users ADD COLUMN blocked INT DEFAULT 0;");
+        tolerant("CREATE TABLE IF NOT EXISTS nostros_notes_relays(\n" +
+                "          note_id TEXT NOT NULL,\n" +
+                "          pubkey TEXT NOT NULL,\n" +
+                "          relay_url INT NOT NULL,\n" +
+                "          PRIMARY KEY (note_id, relay_url)\n" +
+                "        );");
+        tolerant("ALTER TABLE nostros_users ADD COLUMN pet_at INT;");
+        tolerant("ALTER TABLE nostros_users ADD COLUMN follower_at INT;");
+        tolerant("ALTER TABLE nostros_relays ADD COLUMN global_feed INT DEFAULT 1;");
+        tolerant("ALTER TABLE nostros_relays ADD COLUMN resilient INT DEFAULT 0;");
+        tolerant("ALTER TABLE nostros_relays ADD COLUMN manual INT DEFAULT 1;");
+        tolerant("CREATE TABLE IF NOT EXISTS nostros_group_meta(\n" +
+                "          id TEXT PRIMARY KEY NOT NULL, \n" +
+                "          content TEXT,\n" +
+                "          created_at INT,\n" +
+                "          kind INT,\n" +
+                "          pubkey TEXT,\n" +
+                "          sig TEXT,\n" +
+                "          tags TEXT,\n" +
+                "          name TEXT,\n" +
+                "          about TEXT,\n" +
+                "          picture TEXT\n" +
+                "        );");
+        tolerant("CREATE TABLE IF NOT EXISTS nostros_group_messages(\n" +
+                "          id TEXT PRIMARY KEY NOT NULL, \n" +
+                "          content TEXT NOT NULL,\n" +
+                "          created_at INT NOT NULL,\n" +
+                "          kind INT NOT NULL,\n" +
+                "          pubkey TEXT NOT NULL,\n" +
+                "          sig TEXT NOT NULL,\n" +
+                "          tags TEXT NOT NULL,\n" +
+                "          group_id TEXT NOT NULL,\n" +
+                "          hidden INT DEFAULT 0\n" +
+                "        );");
+        tolerant("ALTER TABLE nostros_users ADD COLUMN muted_groups INT DEFAULT 0;");
+        tolerant("ALTER TABLE nostros_group_meta ADD COLUMN deleted INT DEFAULT 0;");
+        tolerant("ALTER TABLE nostros_group_messages ADD COLUMN read INT DEFAULT 0;");
+        tolerant("ALTER TABLE nostros_group_messages ADD COLUMN user_mentioned INT DEFAULT 0;");
+        tolerant("ALTER TABLE nostros_relays ADD COLUMN updated_at INT DEFAULT 0;");
+        tolerant("ALTER TABLE nostros_relays ADD COLUMN mode TEXT;");
+        tolerant("ALTER TABLE nostros_users ADD COLUMN ln_address TEXT;",
+                "UPDATE nostros_users SET ln_address=lnurl;");
+        tolerant("ALTER TABLE nostros_users ADD COLUMN zap_pubkey TEXT;");
+        tolerant("CREATE TABLE IF NOT EXISTS nostros_zaps(\n" +
+                "          id TEXT PRIMARY KEY NOT NULL, \n" +
+                "          content TEXT NOT NULL,\n" +
+                "          created_at INT NOT NULL,\n" +
+                "          kind INT NOT NULL,\n" +
+                "          pubkey TEXT NOT NULL,\n" +
+                "          sig TEXT NOT NULL,\n" +
+                "          tags TEXT NOT NULL,\n" +
+                "          amount FLOAT NOT NULL,\n" +
+                "          zapped_user_id TEXT NOT NULL,\n" +
+                "          zapper_user_id TEXT NOT NULL,\n" +
+                "          zapped_event_id TEXT\n" +
+                "        );");
+        tolerant("ALTER TABLE nostros_relays ADD COLUMN deleted_at INT DEFAULT 0;");
+        tolerant("DROP INDEX nostros_notes_notifications_index;");
+        tolerant("CREATE INDEX nostros_users_names_index ON nostros_users(id, name); ");
+        tolerant("CREATE INDEX nostros_users_contacts_index ON nostros_users(id, contact); ");
+        tolerant("CREATE INDEX nostros_users_blocked_index ON nostros_users(id, blocked); ");
+        tolerant("CREATE INDEX nostros_users_muted_index ON nostros_users(id, muted_groups); ");
+        tolerant("CREATE INDEX nostros_notes_home_index ON nostros_notes(pubkey, created_at, main_event_id, repost_id); ");
+        tolerant("CREATE INDEX nostros_notes_notifications_index ON nostros_notes(pubkey, user_mentioned, reply_event_id, created_at); ");
+        tolerant("CREATE INDEX nostros_notes_reply_index ON nostros_notes(reply_event_id); ");
+        tolerant("CREATE INDEX nostros_notes_list_index ON nostros_notes(pubkey, created_at); ");
+        tolerant("CREATE INDEX nostros_notes_repost_count_index ON nostros_notes(pubkey, repost_id, created_at); ");
+        tolerant("CREATE INDEX nostros_group_messages_mentions_index ON nostros_group_messages(group_id, pubkey, created_at);");
+        tolerant("CREATE INDEX nostros_group_messages_group_index ON nostros_group_messages(group_id, created_at);");
+        tolerant("CREATE INDEX nostros_group_messages_feed_index ON nostros_group_messages(user_mentioned, read, group_id);");
+        tolerant("CREATE INDEX nostros_notes_relays_notes_index ON nostros_notes_relays(note_id, relay_url);");
+        tolerant("CREATE INDEX nostros_notes_relays_users_index ON nostros_notes_relays(pubkey, relay_url);");
+        tolerant("CREATE INDEX nostros_direct_messages_feed_index ON nostros_direct_messages(pubkey, created_at); ");
+        tolerant("CREATE INDEX nostros_direct_messages_notification_index ON nostros_direct_messages(pubkey, read); ");
+        tolerant("CREATE INDEX nostros_direct_messages_conversation_index ON nostros_direct_messages(created_at, conversation_id); ");
+        tolerant("CREATE INDEX nostros_zaps_list_index ON nostros_zaps(zapper_user_id);");
+        tolerant("CREATE INDEX nostros_zaps_user_index ON nostros_zaps(zapper_user_id, zapped_event_id);");
+        tolerant("CREATE INDEX nostros_users_contact_follower_index ON nostros_users(contact, follower); ");
+        tolerant("CREATE INDEX nostros_reactions_created_at_reacted_event_id_index ON nostros_reactions(created_at, reacted_event_id); ");
+        tolerant("CREATE INDEX nostros_notes_pubkey_index ON nostros_notes(pubkey); ");
+        tolerant("CREATE INDEX nostros_notes_main_event_id_index ON nostros_notes(main_event_id); ");
+        tolerant("CREATE INDEX nostros_direct_messages_pubkey_index ON nostros_direct_messages(pubkey); ");
+        tolerant("CREATE INDEX nostros_direct_messages_conversation_id_index ON nostros_direct_messages(conversation_id); ");
+        tolerant("CREATE INDEX nostros_reactions_reacted_event_id_index ON nostros_reactions(reacted_event_id); ");
+        tolerant("CREATE INDEX nostros_reactions_pubkey_index ON nostros_reactions(pubkey); ");
+        tolerant("CREATE INDEX nostros_nostros_zaps_zapped_event_id_index ON nostros_zaps(zapped_event_id);");
+        tolerant("CREATE INDEX nostros_users_contact_index ON nostros_users(contact); ");
+        tolerant("CREATE TABLE IF NOT EXISTS nostros_lists(\n" +
+                "          id TEXT PRIMARY KEY NOT NULL, \n" +
+                "          content TEXT NOT NULL,\n" +
+                "          created_at INT NOT NULL,\n" +
+                "          kind INT NOT NULL,\n" +
+                "          pubkey TEXT NOT NULL,\n" +
+                "          sig TEXT NOT NULL,\n" +
+                "          tags TEXT NOT NULL\n" +
+                "          );");
+        tolerant("CREATE INDEX nostros_nostros_list_index ON nostros_lists(kind, pubkey);");
+        tolerant("ALTER TABLE nostros_lists ADD COLUMN list_tag TEXT;");
+        tolerant("CREATE TABLE IF NOT EXISTS nostros_relay_metadata(\n" +
+                "          id TEXT PRIMARY KEY NOT NULL, \n" +
+                "          content TEXT NOT NULL,\n" +
+                "          created_at INT NOT NULL,\n" +
+                "          kind INT NOT NULL,\n" +
+                "          pubkey TEXT NOT NULL,\n" +
+                "          sig TEXT NOT NULL,\n" +
+                "          tags TEXT NOT NULL\n" +
+                "          );");
+        tolerant("CREATE INDEX nostros_relay_metadata_index ON nostros_relay_metadata(pubkey);");
+        tolerant("ALTER TABLE nostros_relays ADD COLUMN paid INT DEFAULT 0;");
+        tolerant("ALTER TABLE nostros_zaps ADD COLUMN preimage TEXT;");
+        tolerant("ALTER TABLE nostros_users ADD COLUMN tags TEXT;");
+        tolerant("CREATE TABLE IF NOT EXISTS nostros_notifications(\n" +
+                "          id TEXT PRIMARY KEY NOT NULL, \n" +
+                "          content TEXT NOT NULL,\n" +
+                "          created_at INT NOT NULL,\n" +
+                "          kind INT NOT NULL,\n" +
+                "          pubkey TEXT NOT NULL,\n" +
+                "          tags TEXT NOT NULL\n," +
+                "          amount FLOAT,\n" +
+                "          event_id TEXT\n" +
+                "          );");
+        tolerant("CREATE INDEX nostros_notifications_index ON nostros_notifications(created_at);");
+        tolerant("ALTER TABLE nostros_notifications ADD COLUMN zapper_user_id TEXT;");
+        tolerant("UPDATE nostros_lists SET kind=10003 WHERE kind=10001;"); // FIXME Remove after including kind 10003
+        tolerant("ALTER TABLE nostros_users ADD COLUMN banner TEXT;");
+    }
+
+    // Step 2: nostros_notes_relays, one row per event and relay, keeps note ids and pubkeys as
+    // 32-byte blobs in a WITHOUT ROWID table. This replaces the hex rowid table, its primary
+    // key index and a second index on the same columns.
+    private void compactNotesRelays() {
+        instance.execSQL("CREATE TABLE nostros_notes_relays_compact(\n" +
+                "          note_id BLOB NOT NULL,\n" +
+                "          pubkey BLOB NOT NULL,\n" +
+                "          relay_url TEXT NOT NULL,\n" +
+                "          PRIMARY KEY (note_id, relay_url)\n" +
+                "        ) WITHOUT ROWID;");
+        SQLiteStatement insert = instance.compileStatement("INSERT OR IGNORE INTO nostros_notes_relays_compact(note_id, pubkey, relay_url) VALUES (?, ?, ?)");
+        Cursor cursor = instance.rawQuery("SELECT note_id, pubkey, relay_url FROM nostros_notes_relays", new String[] {});
+        int skipped = 0;
+        while (cursor.moveToNext()) {
+            String noteId = cursor.getString(0);
+            String pubkey = cursor.getString(1);
+            String relayUrl = cursor.getString(2);
+            if (!isHexKey(noteId) || !isHexKey(pubkey) || relayUrl == null) {
+                skipped++;
+                continue;
+            }
+            insert.bindBlob(1, NostrUtil.hexToBytes(noteId));
+            insert.bindBlob(2, NostrUtil.hexToBytes(pubkey));
+            insert.bindString(3, relayUrl);
+            insert.executeInsert();
+        }
+        cursor.close();
+        insert.close();
+        instance.execSQL("DROP TABLE nostros_notes_relays;");
+        instance.execSQL("ALTER TABLE nostros_notes_relays_compact RENAME TO nostros_notes_relays;");
+        instance.execSQL("CREATE INDEX nostros_notes_relays_users_index ON nostros_notes_relays(pubkey, relay_url);");
+        if (skipped > 0) {
+            Log.d("Database", "notes_relays skipped " + skipped + " malformed rows");
+        }
+    }
+
+    // Step 3: single-letter tags of stored events, filled in for existing rows by EventTags.rebuild.
+    private void createEventTags() {
+        instance.execSQL("CREATE TABLE nostros_event_tags(\n" +
+                "          event_id TEXT NOT NULL,\n" +
+                "          kind INT NOT NULL,\n" +
+                "          name TEXT NOT NULL,\n" +
+                "          value TEXT NOT NULL,\n" +
+                "          position INT NOT NULL,\n" +
+                "          PRIMARY KEY (event_id, position)\n" +
+                "        ) WITHOUT ROWID;");
+        instance.execSQL("CREATE INDEX nostros_event_tags_value_index ON nostros_event_tags(name, value, kind, event_id);");
+        instance.execSQL("CREATE TABLE nostros_event_tags_rebuild(\n" +
+                "          table_name TEXT PRIMARY KEY NOT NULL,\n" +
+                "          last_rowid INT NOT NULL DEFAULT 0\n" +
+                "        );");
+        for (String table : EventTags.TABLES) {
+            instance.execSQL("INSERT INTO nostros_event_tags_rebuild(table_name) VALUES (?)", new Object[] {table});
+        }
+    }
+
+    // Step 4: t values indexed before they were lower-cased are dropped and indexed again by
+    // EventTags.rebuild, which lower-cases them the same way new events are.
+    private void normalizeHashtags() {
+        instance.execSQL("DELETE FROM nostros_event_tags WHERE name = 't';");
+        for (String table : EventTags.TABLES) {
+            instance.execSQL("INSERT OR REPLACE INTO nostros_event_tags_rebuild(table_name, last_rowid) VALUES (?, 0)", new Object[] {table});
+        }
+    }
+
+    // Step 5: per relay and filter set sync cursors, see SyncCursors. Builds that folded this and
+    // the steps below into the legacy one already have them, hence IF NOT EXISTS and addColumn.
+    private void createRelayCursors() {
+        instance.execSQL("CREATE TABLE IF NOT EXISTS nostros_relay_cursors(\n" +
+                "          relay_url TEXT NOT NULL,\n" +
+                "          filter_key TEXT NOT NULL,\n" +
+                "          created_at INT NOT NULL,\n" +
+                "          events INT DEFAULT 0,\n" +
+                "          bytes INT DEFAULT 0,\n" +
+                "          updated_at INT DEFAULT 0,\n" +
+                "          PRIMARY KEY (relay_url, filter_key)\n" +
+                "        );");
+    }
+
+    // Step 8: NIP-45 counts cached by filter.
+    private void createCounts() {
+        instance.execSQL("CREATE TABLE IF NOT EXISTS nostros_counts(\n" +
+                "          filter_key TEXT PRIMARY KEY NOT NULL,\n" +
+                "          filter TEXT NOT NULL,\n" +
+                "          count INT NOT NULL,\n" +
+                "          approximate INT DEFAULT 0,\n" +
+                "          relays INT DEFAULT 0,\n" +
+                "          updated_at INT DEFAULT 0\n" +
+                "        );");
+    }
+
+    // Steps 6 and 7: relay stats and compression preference columns.
+    private void addColumn(String table, String column, String definition) {
+        boolean exists = false;
+        Cursor cursor = instance.rawQuery("PRAGMA table_info(" + table + ");", new String[] {});
+        while (cursor.moveToNext()) {
+            if (column.equals(cursor.getString(cursor.getColumnIndexOrThrow("name")))) {
+                exists = true;
+                break;
+            }
+        }
+        cursor.close();
+        if (!exists) {
+            instance.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition + ";");
+        }
+    }
+
+    private static boolean isHexKey(String value) {
+        if (value == null || value.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); ++i) {
+            if (Character.digit(value.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int saveEvent(Event event, String userPubKey, String relayUrl) {
+        long start = System.nanoTime();
+        int action = event.save(statements, userPubKey, relayUrl);
+        statements.record(System.nanoTime() - start);
+        return action;
+    }
+
+    public void saveEventRelay(Event event, String relayUrl) {
+        event.saveRelay(statements, relayUrl);
+    }
+
+    // Pragmas are per connection and Android may hand statements it considers read-only to a
+    // reader connection. Inside a transaction the session holds the primary (writer) connection,
+    // so they are set and read back there; the readers keep Android's defaults.
+    private void configure() {
+        instance.beginTransactionNonExclusive();
         try {
-            instance.execSQL("ALTER TABLE nostros_users ADD COLUMN tags TEXT;");
-        } catch (SQLException e) { }
+            instance.execSQL("PRAGMA synchronous = NORMAL;");
+            instance.execSQL("PRAGMA cache_size = -8192;");
+            pragma("PRAGMA mmap_size = 33554432;");
+            pragma("PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES + ";");
+            journalMode = pragma("PRAGMA journal_mode;");
+            Log.d("Database", "writer pragmas journal_mode " + journalMode
+                    + ", synchronous " + pragma("PRAGMA synchronous;")
+                    + ", cache_size " + pragma("PRAGMA cache_size;")
+                    + ", mmap_size " + pragma("PRAGMA mmap_size;")
+                    + ", wal_autocheckpoint " + pragma("PRAGMA wal_autocheckpoint;"));
+            instance.setTransactionSuccessful();
+        } finally {
+            instance.endTransaction();
+        }
+    }
+
+    private String pragma(String query) {
+        String result = null;
         try {
-            instance.execSQL("CREATE TABLE IF NOT EXISTS nostros_notifications(\n" +
-                    "          id TEXT PRIMARY KEY NOT NULL, \n" +
-                    "          content TEXT NOT NULL,\n" +
-                    "          created_at INT NOT NULL,\n" +
-                    "          kind INT NOT NULL,\n" +
-                    "          pubkey TEXT NOT NULL,\n" +
-                    "          tags TEXT NOT NULL\n," +
-                    "          amount FLOAT,\n" +
-                    "          event_id TEXT\n" +
-                    "          );");
-            instance.execSQL("CREATE INDEX nostros_notifications_index ON nostros_notifications(created_at);");
-        } catch (SQLException e) { }
+            Cursor cursor = instance.rawQuery(query, new String[] {});
+            if (cursor.moveToFirst()) {
+                result = cursor.getString(0);
+            }
+            cursor.close();
+        } catch (SQLException e) {
+            Log.d("Database", query + " __ " + e);
+        }
+        return result;
+    }
+
+    // Opens the write transaction, recording how long another writer held the lock.
+    // The BEGIN mode is the framework's choice and a deferred one only locks on the first write,
+    // so a write that changes nothing takes the lock here, as BEGIN IMMEDIATE would.
+    public void beginWrite() {
+        long start = System.nanoTime();
+        instance.beginTransactionNonExclusive();
         try {
-            instance.execSQL("ALTER TABLE nostros_notifications ADD COLUMN zapper_user_id TEXT;");
-        } catch (SQLException e) { }
+            instance.execSQL("DELETE FROM nostros_relays WHERE rowid < 0");
+        } catch (RuntimeException e) {
+            instance.endTransaction();
+            throw e;
+        }
+        long waited = System.nanoTime() - start;
+        lockWaits.incrementAndGet();
+        lockWaitNanos.addAndGet(waited);
+        long max = maxLockWaitNanos.get();
+        while (waited > max && !maxLockWaitNanos.compareAndSet(max, waited)) {
+            max = maxLockWaitNanos.get();
+        }
+        walDirty = true;
+    }
+
+    // Called by the writer when its queue goes idle, so bursts are not interrupted by checkpoints.
+    public void checkpoint() {
+        if (!walDirty) {
+            return;
+        }
+        walDirty = false;
+        long start = System.nanoTime();
         try {
-            instance.execSQL("UPDATE nostros_lists SET kind=10003 WHERE kind=10001;"); // FIXME Remove after including kind 10003
-        } catch (SQLException e) { }
+            Cursor cursor = instance.rawQuery("PRAGMA wal_checkpoint(PASSIVE);", new String[] {});
+            if (cursor.moveToFirst()) {
+                walFrames = cursor.getLong(1);
+            }
+            cursor.close();
+        } catch (RuntimeException e) {
+            Log.d("Database", "CHECKPOINT ERROR " + e);
+            return;
+        }
+        checkpoints.incrementAndGet();
+        checkpointNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    public int getSchemaVersion() {
+        return instance.getVersion();
+    }
+
+    public int getMigratedFrom() {
+        return migratedFrom;
+    }
+
+    public long getOpenNanos() {
+        return openNanos;
+    }
+
+    public String getJournalMode() {
+        return journalMode;
+    }
+
+    public long getLockWaits() {
+        return lockWaits.get();
+    }
+
+    public long getAverageLockWaitNanos() {
+        long count = lockWaits.get();
+        return count == 0 ? 0 : lockWaitNanos.get() / count;
+    }
+
+    public long getMaxLockWaitNanos() {
+        return maxLockWaitNanos.get();
+    }
+
+    public long getCheckpoints() {
+        return checkpoints.get();
+    }
+
+    public long getAverageCheckpointNanos() {
+        long count = checkpoints.get();
+        return count == 0 ? 0 : checkpointNanos.get() / count;
+    }
+
+    public long getWalFrames() {
+        return walFrames;
+    }
+
+    // Local (created_at, id) set for a NIP-77 filter, or null when the filter has fields other
+    // than kinds/authors/since/until/#<letter> or asks for kinds that are not stored as whole events.
+    // Tag filters are answered from nostros_event_tags once its rebuild has finished.
+    public Negentropy.Storage negentropyStorage(JSONObject filter) throws JSONException {
+        Map<String, List<String>> tagFilters = new HashMap<>();
+        int tagValues = 0;
+        Iterator<String> keys = filter.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (key.length() == 2 && key.charAt(0) == '#') {
+                JSONArray values = filter.getJSONArray(key);
+                List<String> tagFilter = new ArrayList<>();
+                for (int i = 0; i < values.length(); ++i) {
+                    tagFilter.add(EventTags.normalize(key.substring(1), values.getString(i)));
+                }
+                tagFilters.put(key.substring(1), tagFilter);
+                tagValues += tagFilter.size();
+            } else if (!key.equals("kinds") && !key.equals("authors") && !key.equals("since") && !key.equals("until")) {
+                return null;
+            }
+        }
+        if (!tagFilters.isEmpty() && (tagValues > MAX_TAG_VALUES || eventTags.isPending())) {
+            return null;
+        }
+        JSONArray kinds = filter.optJSONArray("kinds");
+        if (kinds == null || kinds.length() == 0) {
+            return null;
+        }
+        Map<String, List<String>> kindsByTable = new HashMap<>();
+        for (int i = 0; i < kinds.length(); ++i) {
+            String kind = kinds.get(i).toString();
+            String table = EVENT_TABLES.get(kind);
+            if (table == null) {
+                return null;
+            }
+            List<String> tableKinds = kindsByTable.get(table);
+            if (tableKinds == null) {
+                tableKinds = new ArrayList<>();
+                kindsByTable.put(table, tableKinds);
+            }
+            tableKinds.add(kind);
+        }
+        List<String> authors = new ArrayList<>();
+        JSONArray filterAuthors = filter.optJSONArray("authors");
+        if (filterAuthors != null) {
+            for (int i = 0; i < filterAuthors.length(); ++i) {
+                authors.add(filterAuthors.getString(i));
+            }
+        }
+
+        Negentropy.Storage storage = new Negentropy.Storage();
+        for (Map.Entry<String, List<String>> entry : kindsByTable.entrySet()) {
+            int chunk = 500;
+            for (int start = 0; start == 0 || start < authors.size(); start += chunk) {
+                List<String> args = new ArrayList<>(entry.getValue());
+                StringBuilder query = new StringBuilder("SELECT id, created_at FROM ")
+                        .append(entry.getKey())
+                        .append(" WHERE kind IN (")
+                        .append(placeholders(entry.getValue().size()))
+                        .append(")");
+                if (!authors.isEmpty()) {
+                    List<String> authorsChunk = authors.subList(start, Math.min(authors.size(), start + chunk));
+                    query.append(" AND pubkey IN (").append(placeholders(authorsChunk.size())).append(")");
+                    args.addAll(authorsChunk);
+                }
+                for (Map.Entry<String, List<String>> tagFilter : tagFilters.entrySet()) {
+                    query.append(" AND id IN (SELECT event_id FROM nostros_event_tags WHERE name = ? AND value IN (")
+                            .append(placeholders(tagFilter.getValue().size()))
+                            .append("))");
+                    args.add(tagFilter.getKey());
+                    args.addAll(tagFilter.getValue());
+                }
+                if (filter.has("since")) {
+                    query.append(" AND created_at >= ?");
+                    args.add(String.valueOf(filter.getLong("since")));
+                }
+                if (filter.has("until")) {
+                    query.append(" AND created_at <= ?");
+                    args.add(String.valueOf(filter.getLong("until")));
+                }
+                Cursor cursor = instance.rawQuery(query.toString(), args.toArray(new String[0]));
+                while (cursor.moveToNext()) {
+                    storage.insert(cursor.getLong(1), cursor.getString(0));
+                }
+                cursor.close();
+            }
+        }
+        storage.seal();
+        return storage;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+        return placeholders.toString();
+    }
+
+    // Looks in the kind's own table: a nostros_notes_relays row alone does not mean the handler
+    // stored the event. Kinds not kept as whole events are never known and always verified.
+    // Compiled per call: the verifier threads run this concurrently with the writer.
+    public boolean isEventStored(Event event) {
+        String table = EVENT_TABLES.get(event.getKind());
+        if (table == null) {
+            return false;
+        }
+        SQLiteStatement statement = instance.compileStatement("SELECT COUNT(*) FROM " + table + " WHERE id = ?");
         try {
-            instance.execSQL("ALTER TABLE nostros_users ADD COLUMN banner TEXT;");
-        } catch (SQLException e) { }
+            statement.bindString(1, event.getId());
+            return statement.simpleQueryForLong() > 0;
+        } finally {
+            statement.close();
+        }
     }
 
-    public int saveEvent(JSONObject data, String userPubKey, String relayUrl) throws JSONException {
-        Event event = new Event(data);
-        return event.save(instance, userPubKey, relayUrl);
+    // Main database file size; the WAL is reported separately as walFrames.
+    public long getDatabaseBytes() {
+        String pageCount = pragma("PRAGMA page_count;");
+        return pageCount == null ? 0 : Long.parseLong(pageCount) * instance.getPageSize();
     }
 
     public void saveRelay(Relay relay) {
@@ -286,9 +856,9 @@ public class Database {
         instance.update ("nostros_relays", values, whereClause, whereArgs);
     }
 
-    public List<Relay> getRelays(ReactApplicationContext reactContext, ArrayList<String> createdEvents) {
+    public List<Relay> getRelays(BridgeEmitter emitter, EventIngest eventIngest, ConnectionManager connections, SubscriptionRegistry subscriptions) {
         List<Relay> relayList = new ArrayList<>();
-        String query = "SELECT url, active, global_feed FROM nostros_relays WHERE deleted_at = 0 AND active = 1;";
+        String query = "SELECT url, active, global_feed, stats, compression FROM nostros_relays WHERE deleted_at = 0 AND active = 1;";
         @SuppressLint("Recycle") Cursor cursor = instance.rawQuery(query, new String[] {});
         if (cursor.getCount() > 0) {
             cursor.moveToFirst();
@@ -297,7 +867,9 @@ public class Database {
                     String relayUrl = cursor.getString(0);
                     int active = cursor.getInt(1);
                     int globalFeed = cursor.getInt(2);
-                    Relay relay = new Relay(relayUrl, active, globalFeed,0, this, reactContext, createdEvents);
+                    Relay relay = new Relay(relayUrl, active, globalFeed,0, this, emitter, eventIngest, connections, subscriptions);
+                    relay.getMetrics().restore(cursor.getString(3));
+                    relay.setCompression(cursor.getInt(4));
                     relayList.add(relay);
                 } catch (IOException e) {
                     Log.d("WebSocket", e.toString());
@@ -1,9 +1,5 @@
 package com.nostros.classes;
 
-import android.annotation.SuppressLint;
-import android.content.ContentValues;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
 import org.json.JSONArray;
@@ -18,6 +14,7 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -34,7 +31,9 @@ public class Event {
     private final String kind;
     private final String pubkey;
     private final String sig;
-    private final JSONArray tags;
+    private final String tagsJson;
+    private JSONArray tags;
+    private List<String> subscriptions = new ArrayList<>();
 
     public Event(JSONObject data) throws JSONException {
         created_at = data.getInt("created_at");
@@ -44,54 +43,116 @@ public class Event {
         pubkey = data.getString("pubkey");
         sig = data.getString("sig");
         tags = data.getJSONArray("tags");
+        tagsJson = tags.toString();
     }
 
-    public int save(SQLiteDatabase database, String userPubKey, String relayUrl) {
-        if (isValid()) {
+    public Event(RelayFrame frame) throws JSONException {
+        created_at = parseCreatedAt(frame);
+        content = frame.hasEventField(RelayFrame.CONTENT) ? frame.getEventString(RelayFrame.CONTENT) : "";
+        id = frame.getEventString(RelayFrame.ID);
+        kind = frame.getEventRaw(RelayFrame.KIND);
+        pubkey = frame.getEventString(RelayFrame.PUBKEY);
+        sig = frame.getEventString(RelayFrame.SIG);
+        tagsJson = frame.getEventRaw(RelayFrame.TAGS);
+    }
+
+    // Lenient like JSONObject.getInt: quoted numbers and decimal or exponent forms are accepted.
+    private static int parseCreatedAt(RelayFrame frame) throws JSONException {
+        String raw = frame.getEventRaw(RelayFrame.CREATED_AT);
+        String value = raw.startsWith("\"") ? frame.getEventString(RelayFrame.CREATED_AT) : raw;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
             try {
-                ContentValues relayValues = new ContentValues();
-                relayValues.put("note_id", id);
-                relayValues.put("pubkey", pubkey);
-                relayValues.put("relay_url", relayUrl);
-                database.replace("nostros_notes_relays", null, relayValues);
-
-                if (kind.equals("0")) {
-                    return saveUserMeta(database);
-                } else if (kind.equals("1") || kind.equals("2")) {
-                    return saveNote(database, userPubKey);
-                } else if (kind.equals("3")) {
-                    if (pubkey.equals(userPubKey)) {
-                        return savePets(database);
-                    } else {
-                        return saveFollower(database, userPubKey);
-                    }
-                } else if (kind.equals("4")) {
-                    return saveDirectMessage(database, userPubKey);
-                } else if (kind.equals("7")) {
-                    return saveReaction(database, userPubKey);
-                } else if (kind.equals("40")) {
-                    return saveGroup(database);
-                } else if (kind.equals("41")) {
-                    return updateGroup(database);
-                } else if (kind.equals("42")) {
-                    return saveGroupMessage(database, userPubKey);
-                } else if (kind.equals("43")) {
-                    return hideGroupMessage(database);
-                } else if (kind.equals("44")) {
-                    return muteUser(database);
-                } else if (kind.equals("10002")) {
-                    return saveRelayMetadata(database);
-                } else if (kind.equals("9735")) {
-                    return saveZap(database, userPubKey);
-                } else if (kind.equals("10000") || kind.equals("10003")) {
-                    return saveList(database);
+                return (int) Double.parseDouble(value);
+            } catch (NumberFormatException notNumber) {
+                throw new JSONException("Invalid created_at " + raw);
+            }
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public String getPubkey() {
+        return pubkey;
+    }
+
+    public int getCreatedAt() {
+        return created_at;
+    }
+
+    public List<String> getSubscriptions() {
+        return subscriptions;
+    }
+
+    public void setSubscriptions(List<String> subIds) {
+        subscriptions = subIds;
+    }
+
+    public int save(EventStatements statements, String userPubKey, String relayUrl) {
+        try {
+            saveRelay(statements, relayUrl);
+
+            if (kind.equals("0")) {
+                return saveUserMeta(statements);
+            } else if (kind.equals("1") || kind.equals("2")) {
+                return saveNote(statements, userPubKey);
+            } else if (kind.equals("3")) {
+                if (pubkey.equals(userPubKey)) {
+                    return savePets(statements);
+                } else {
+                    return saveFollower(statements, userPubKey);
                 }
+            } else if (kind.equals("4")) {
+                return saveDirectMessage(statements, userPubKey);
+            } else if (kind.equals("7")) {
+                return saveReaction(statements, userPubKey);
+            } else if (kind.equals("40")) {
+                return saveGroup(statements);
+            } else if (kind.equals("41")) {
+                return updateGroup(statements);
+            } else if (kind.equals("42")) {
+                return saveGroupMessage(statements, userPubKey);
+            } else if (kind.equals("43")) {
+                return hideGroupMessage(statements);
+            } else if (kind.equals("44")) {
+                return muteUser(statements);
+            } else if (kind.equals("10002")) {
+                return saveRelayMetadata(statements);
+            } else if (kind.equals("9735")) {
+                return saveZap(statements, userPubKey);
+            } else if (kind.equals("10000") || kind.equals("10003")) {
+                return saveList(statements);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+
+        return 0;
+    }
+
+    // Tags are only materialized for the handlers that inspect them.
+    protected JSONArray getTags() {
+        if (tags == null) {
+            try {
+                tags = new JSONArray(tagsJson);
             } catch (JSONException e) {
                 e.printStackTrace();
+                tags = new JSONArray();
             }
         }
+        return tags;
+    }
 
-        return 0;
+    public void saveRelay(EventStatements statements, String relayUrl) {
+        String query = "INSERT OR REPLACE INTO nostros_notes_relays(note_id, pubkey, relay_url) VALUES (?, ?, ?)";
+        statements.insert(query, NostrUtil.hexToBytes(id), NostrUtil.hexToBytes(pubkey), relayUrl);
     }
 
     protected boolean isValid() {
@@ -168,8 +229,8 @@ public class Event {
         JSONArray filtered = new JSONArray();
 
         try {
-            for (int i = 0; i < tags.length(); ++i) {
-                JSONArray tag = tags.getJSONArray(i);
+            for (int i = 0; i < getTags().length(); ++i) {
+                JSONArray tag = getTags().getJSONArray(i);
                 String tagKind = tag.getString(0);
                 if (tagKind.equals(kind)) {
                     filtered.put(tag);
@@ -243,51 +304,28 @@ public class Event {
         return "";
     }
 
-    protected int saveNotification(SQLiteDatabase database, String eventId, double amount, String zapper_user_id) {
-        String query = "SELECT id FROM nostros_notifications WHERE id = ?";
-        @SuppressLint("Recycle") Cursor cursor = database.rawQuery(query, new String[] {id});
-        if (cursor.getCount() == 0) {
-            ContentValues values = new ContentValues();
-            values.put("id", id);
-            values.put("content", content);
-            values.put("created_at", created_at);
-            values.put("kind", kind);
-            values.put("pubkey", pubkey);
-            values.put("tags", tags.toString());
-            values.put("amount", amount);
-            values.put("event_id", eventId);
-            values.put("zapper_user_id", zapper_user_id);
-            database.replace("nostros_notifications", null, values);
+    protected void saveTags(EventStatements statements) {
+        EventTags.save(statements, id, kind, getTags());
+    }
+
+    protected int saveNotification(EventStatements statements, String eventId, double amount, String zapper_user_id) {
+        String query = "INSERT OR IGNORE INTO nostros_notifications(id, content, created_at, kind, pubkey, tags, amount, event_id, zapper_user_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        if (statements.insert(query, id, content, created_at, kind, pubkey, tagsJson, amount, eventId, zapper_user_id) != -1) {
             return 2;
         }
 
         return 1;
     }
 
-    protected int saveNote(SQLiteDatabase database, String userPubKey) {
-        String query = "SELECT id FROM nostros_notes WHERE id = ?";
-        @SuppressLint("Recycle") Cursor cursor = database.rawQuery(query, new String[] {id});
-
+    protected int saveNote(EventStatements statements, String userPubKey) {
         int userMentioned = getUserMentioned(userPubKey);
         String repostId = getRepostId();
 
-        if (cursor.getCount() == 0) {
-            ContentValues values = new ContentValues();
-            values.put("id", id);
-            values.put("content", content);
-            values.put("created_at", created_at);
-            values.put("kind", kind);
-            values.put("pubkey", pubkey);
-            values.put("sig", sig);
-            values.put("tags", tags.toString());
-            values.put("main_event_id", getMainEventId());
-            values.put("reply_event_id", getReplyEventId());
-            values.put("user_mentioned", userMentioned);
-            values.put("repost_id", repostId);
-            database.replace("nostros_notes", null, values);
-
+        String query = "INSERT OR IGNORE INTO nostros_notes(id, content, created_at, kind, pubkey, sig, tags, main_event_id, reply_event_id, user_mentioned, repost_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        if (statements.insert(query, id, content, created_at, kind, pubkey, sig, tagsJson, getMainEventId(), getReplyEventId(), userMentioned, repostId) != -1) {
+            saveTags(statements);
             if (userMentioned > 0 && !pubkey.equals(userPubKey)) {
-                return saveNotification(database, repostId, 0, null);
+                return saveNotification(statements, repostId, 0, null);
             }
 
             return 1;
@@ -296,29 +334,19 @@ public class Event {
         return 0;
     }
 
-    protected int saveRelayMetadata(SQLiteDatabase database) {
-        String query = "SELECT id FROM nostros_relay_metadata WHERE id = ?";
-        @SuppressLint("Recycle") Cursor cursor = database.rawQuery(query, new String[] {id});
-
-        if (cursor.getCount() == 0) {
-            ContentValues values = new ContentValues();
-            values.put("id", id);
-            values.put("content", content);
-            values.put("created_at", created_at);
-            values.put("kind", kind);
-            values.put("pubkey", pubkey);
-            values.put("sig", sig);
-            values.put("tags", tags.toString());
-            database.replace("nostros_relay_metadata", null, values);
+    protected int saveRelayMetadata(EventStatements statements) {
+        String query = "INSERT OR IGNORE INTO nostros_relay_metadata(id, content, created_at, kind, pubkey, sig, tags) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        if (statements.insert(query, id, content, created_at, kind, pubkey, sig, tagsJson) != -1) {
+            saveTags(statements);
             return 1;
         }
 
         return 0;
     }
 
-    protected int saveList(SQLiteDatabase database) {
+    protected int saveList(EventStatements statements) {
         String query = "SELECT created_at FROM nostros_lists WHERE pubkey = ? AND kind = ?";
-        @SuppressLint("Recycle") Cursor cursor = database.rawQuery(query, new String[] {pubkey, kind});
+        long savedCreatedAt = statements.queryForLong(query, -1, pubkey, kind);
 
         JSONArray dTags = filterTags("d");
         String listTag = "";
@@ -328,167 +356,103 @@ public class Event {
             } catch (JSONException e) { }
         }
 
-        ContentValues values = new ContentValues();
-        values.put("id", id);
-        values.put("content", content);
-        values.put("created_at", created_at);
-        values.put("kind", kind);
-        values.put("pubkey", pubkey);
-        values.put("sig", sig);
-        values.put("tags", tags.toString());
-        values.put("list_tag", listTag);
-        if (cursor.getCount() == 0) {
-            database.insert("nostros_lists", null, values);
+        if (savedCreatedAt == -1) {
+            String insert = "INSERT OR IGNORE INTO nostros_lists(id, content, created_at, kind, pubkey, sig, tags, list_tag) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+            statements.insert(insert, id, content, created_at, kind, pubkey, sig, tagsJson, listTag);
+            saveTags(statements);
+            return 1;
+        } else if (created_at > savedCreatedAt) {
+            String deleteTags = "DELETE FROM nostros_event_tags WHERE event_id IN (SELECT id FROM nostros_lists WHERE pubkey = ? AND kind = ?)";
+            statements.update(deleteTags, pubkey, kind);
+            String update = "UPDATE nostros_lists SET id = ?, content = ?, created_at = ?, kind = ?, pubkey = ?, sig = ?, tags = ?, list_tag = ? WHERE pubkey = ? AND kind = ?";
+            statements.update(update, id, content, created_at, kind, pubkey, sig, tagsJson, listTag, pubkey, kind);
+            saveTags(statements);
             return 1;
-        } else if (cursor.moveToFirst()) {
-            if (created_at > cursor.getInt(0)) {
-                String whereClause = "pubkey = ? AND kind = ?";
-                String[] whereArgs = new String[]{pubkey, kind};
-                database.update("nostros_lists", values, whereClause, whereArgs);
-                return 1;
-            }
         }
 
         return 0;
     }
 
-    protected int muteUser(SQLiteDatabase database) throws JSONException {
+    protected int muteUser(EventStatements statements) throws JSONException {
         JSONArray pTags = filterTags("p");
         String groupId = pTags.getJSONArray(0).getString(1);
-        String query = "SELECT id FROM nostros_users WHERE id = ?";
-        @SuppressLint("Recycle") Cursor cursor = database.rawQuery(query, new String[] {groupId});
-
-        if (cursor.getCount() != 0) {
-            ContentValues values = new ContentValues();
-            values.put("muted_groups", 1);
-            String whereClause = "id = ?";
-            String[] whereArgs = new String[] {
-                    groupId
-            };
-            database.update("nostros_users", values, whereClause, whereArgs);
+        String query = "UPDATE nostros_users SET muted_groups = 1 WHERE id = ?";
+        if (statements.update(query, groupId) > 0) {
             return 1;
         }
 
         return 0;
     }
 
-    protected int hideGroupMessage(SQLiteDatabase database) throws JSONException {
+    protected int hideGroupMessage(EventStatements statements) throws JSONException {
         JSONArray eTags = filterTags("e");
         String groupId = eTags.getJSONArray(0).getString(1);
-        String query = "SELECT id FROM nostros_group_messages WHERE id = ?";
-        @SuppressLint("Recycle") Cursor cursor = database.rawQuery(query, new String[] {groupId});
-
-        if (cursor.getCount() == 0) {
-            ContentValues values = new ContentValues();
-            values.put("hidden", 1);
-            String whereClause = "id = ?";
-            String[] whereArgs = new String[] {
-                    groupId
-            };
-            database.update("nostros_group_messages", values, whereClause, whereArgs);
+        String query = "SELECT COUNT(*) FROM nostros_group_messages WHERE id = ?";
+
+        if (!statements.exists(query, groupId)) {
+            String update = "UPDATE nostros_group_messages SET hidden = 1 WHERE id = ?";
+            statements.update(update, groupId);
             return 1;
         }
 
         return 0;
     }
 
-    protected int saveGroup(SQLiteDatabase database) throws JSONException {
+    protected int saveGroup(EventStatements statements) throws JSONException {
         JSONObject groupContent = new JSONObject(content);
-        String query = "SELECT created_at, pubkey FROM nostros_group_meta WHERE id = ?";
-        @SuppressLint("Recycle") Cursor cursor = database.rawQuery(query, new String[] {id});
-
-        ContentValues values = new ContentValues();
-        values.put("content", content);
-        values.put("kind", kind);
-        values.put("pubkey", pubkey);
-        values.put("sig", sig);
-        values.put("tags", tags.toString());
-
-        if (cursor.getCount() == 0) {
-            values.put("name", groupContent.optString("name"));
-            values.put("about", groupContent.optString("about"));
-            values.put("picture", groupContent.optString("picture"));
-            values.put("id", id);
-            values.put("created_at", created_at);
-            database.insert("nostros_group_meta", null, values);
-
-            return 1;
-        } else if (cursor.moveToFirst()) {
-            if (created_at > cursor.getInt(0)) {
-                values.put("name", groupContent.optString("name"));
-                values.put("about", groupContent.optString("about"));
-                values.put("picture", groupContent.optString("picture"));
-                values.put("created_at", created_at);
-            }
-            String whereClause = "id = ?";
-            String[] whereArgs = new String[] {
-                    id
-            };
-            database.update("nostros_group_meta", values, whereClause, whereArgs);
-            return 1;
+        String query = "SELECT created_at FROM nostros_group_meta WHERE id = ?";
+        long savedCreatedAt = statements.queryForLong(query, -1, id);
+
+        if (savedCreatedAt == -1) {
+            String insert = "INSERT INTO nostros_group_meta(id, content, created_at, kind, pubkey, sig, tags, name, about, picture) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+            statements.insert(insert, id, content, created_at, kind, pubkey, sig, tagsJson,
+                    groupContent.optString("name"), groupContent.optString("about"), groupContent.optString("picture"));
+        } else if (created_at > savedCreatedAt) {
+            String update = "UPDATE nostros_group_meta SET content = ?, kind = ?, pubkey = ?, sig = ?, tags = ?, name = ?, about = ?, picture = ?, created_at = ? WHERE id = ?";
+            statements.update(update, content, kind, pubkey, sig, tagsJson,
+                    groupContent.optString("name"), groupContent.optString("about"), groupContent.optString("picture"), created_at, id);
+        } else {
+            String update = "UPDATE nostros_group_meta SET content = ?, kind = ?, pubkey = ?, sig = ?, tags = ? WHERE id = ?";
+            statements.update(update, content, kind, pubkey, sig, tagsJson, id);
         }
 
-        return 0;
+        return 1;
     }
 
-    protected int updateGroup(SQLiteDatabase database) throws JSONException {
+    protected int updateGroup(EventStatements statements) throws JSONException {
         JSONObject groupContent = new JSONObject(content);
         JSONArray eTags = filterTags("e");
         String groupId = eTags.getJSONArray(0).getString(1);
-        String query = "SELECT created_at, deleted FROM nostros_group_meta WHERE id = ?";
-        @SuppressLint("Recycle") Cursor cursor = database.rawQuery(query, new String[] {groupId});
-
-        ContentValues values = new ContentValues();
-        values.put("name", groupContent.optString("name"));
-        values.put("about", groupContent.optString("about"));
-        values.put("picture", groupContent.optString("picture"));
-        values.put("created_at", created_at);
-
-        if (cursor.getCount() == 0) {
-            values.put("id", groupId);
-            values.put("content", content);
-            values.put("kind", kind);
-            values.put("pubkey", pubkey);
-            values.put("sig", sig);
-            values.put("tags", tags.toString());
-            values.put("deleted", 0);
-            database.insert("nostros_group_meta", null, values);
+        String query = "SELECT created_at FROM nostros_group_meta WHERE id = ?";
+        long savedCreatedAt = statements.queryForLong(query, -1, groupId);
+
+        String name = groupContent.optString("name");
+        String about = groupContent.optString("about");
+        String picture = groupContent.optString("picture");
+
+        if (savedCreatedAt == -1) {
+            String insert = "INSERT INTO nostros_group_meta(id, content, created_at, kind, pubkey, sig, tags, name, about, picture, deleted) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0)";
+            statements.insert(insert, groupId, content, created_at, kind, pubkey, sig, tagsJson, name, about, picture);
             return 1;
-        } else if (cursor.moveToFirst() && created_at > cursor.getInt(0)) {
-            String whereClause = "id = ?";
-            String[] whereArgs = new String[] {
-                    groupId
-            };
-            database.update("nostros_group_meta", values, whereClause, whereArgs);
+        } else if (created_at > savedCreatedAt) {
+            String update = "UPDATE nostros_group_meta SET name = ?, about = ?, picture = ?, created_at = ? WHERE id = ?";
+            statements.update(update, name, about, picture, created_at, groupId);
             return 1;
         }
 
         return 0;
     }
 
-    protected int saveGroupMessage(SQLiteDatabase database, String userPubKey) throws JSONException {
-        String query = "SELECT created_at FROM nostros_group_messages WHERE id = ?";
-        @SuppressLint("Recycle") Cursor cursor = database.rawQuery(query, new String[] {id});
+    protected int saveGroupMessage(EventStatements statements, String userPubKey) throws JSONException {
+        String query = "SELECT COUNT(*) FROM nostros_group_messages WHERE id = ?";
 
-        if (cursor.getCount() == 0) {
+        if (!statements.exists(query, id)) {
             JSONArray eTags = filterTags("e");
             String groupId = eTags.getJSONArray(0).getString(1);
 
-            ContentValues values = new ContentValues();
-            values.put("id", id);
-            values.put("content", content);
-            values.put("created_at", created_at);
-            values.put("kind", kind);
-            values.put("pubkey", pubkey);
-            values.put("sig", sig);
-            values.put("tags", tags.toString());
-            values.put("group_id", groupId);
-            values.put("user_mentioned", getUserMentioned(userPubKey));
-            if (cursor.getCount() == 0) {
-                values.put("read", 0);
-            }
-
-            database.insert("nostros_group_messages", null, values);
+            String insert = "INSERT INTO nostros_group_messages(id, content, created_at, kind, pubkey, sig, tags, group_id, user_mentioned, read) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, 0)";
+            statements.insert(insert, id, content, created_at, kind, pubkey, sig, tagsJson, groupId, getUserMentioned(userPubKey));
+            saveTags(statements);
 
             if (!pubkey.equals(userPubKey)) {
                 return 2;
@@ -500,30 +464,20 @@ public class Event {
         return 0;
     }
 
-    protected int saveDirectMessage(SQLiteDatabase database, String userPubKey) throws JSONException {
-        String query = "SELECT created_at FROM nostros_direct_messages WHERE id = ?";
-        @SuppressLint("Recycle") Cursor cursor = database.rawQuery(query, new String[] {id});
+    protected int saveDirectMessage(EventStatements statements, String userPubKey) throws JSONException {
+        String query = "SELECT COUNT(*) FROM nostros_direct_messages WHERE id = ?";
 
-        if (cursor.getCount() == 0) {
-            JSONArray tag = tags.getJSONArray(0);
+        if (!statements.exists(query, id)) {
+            JSONArray tag = getTags().getJSONArray(0);
             ArrayList<String> identifiers = new ArrayList<>();
             identifiers.add(pubkey);
             identifiers.add(tag.getString(1));
             Collections.sort(identifiers);
             String conversationId = UUID.nameUUIDFromBytes(identifiers.toString().getBytes()).toString();
 
-            ContentValues values = new ContentValues();
-            values.put("id", id);
-            values.put("content", content);
-            values.put("created_at", created_at);
-            values.put("kind", kind);
-            values.put("pubkey", pubkey);
-            values.put("sig", sig);
-            values.put("tags", tags.toString());
-            values.put("conversation_id", conversationId);
-            values.put("read", 0);
-
-            database.insert("nostros_direct_messages", null, values);
+            String insert = "INSERT INTO nostros_direct_messages(id, content, created_at, kind, pubkey, sig, tags, conversation_id, read) VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0)";
+            statements.insert(insert, id, content, created_at, kind, pubkey, sig, tagsJson, conversationId);
+            saveTags(statements);
 
             if (!pubkey.equals(userPubKey)) {
                 return 2;
@@ -535,11 +489,10 @@ public class Event {
         return 0;
     }
 
-    protected int saveReaction(SQLiteDatabase database, String userPubKey) throws JSONException {
-        String query = "SELECT created_at FROM nostros_reactions WHERE id = ?";
-        @SuppressLint("Recycle") Cursor cursor = database.rawQuery(query, new String[] {id});
+    protected int saveReaction(EventStatements statements, String userPubKey) throws JSONException {
+        String query = "SELECT COUNT(*) FROM nostros_reactions WHERE id = ?";
 
-        if (cursor.getCount() == 0) {
+        if (!statements.exists(query, id)) {
             JSONArray pTags = filterTags("p");
             JSONArray eTags = filterTags("e");
 
@@ -552,22 +505,12 @@ public class Event {
                 reacted_user_id = pTags.getJSONArray(pTags.length() - 1).getString(1);
             }
 
-            ContentValues values = new ContentValues();
-            values.put("id", id);
-            values.put("content", content);
-            values.put("created_at", created_at);
-            values.put("kind", kind);
-            values.put("pubkey", pubkey);
-            values.put("sig", sig);
-            values.put("tags", tags.toString());
-            values.put("positive", !content.equals("-"));
-            values.put("reacted_event_id", reacted_event_id);
-            values.put("reacted_user_id", reacted_user_id);
-
-            database.insert("nostros_reactions", null, values);
+            String insert = "INSERT INTO nostros_reactions(id, content, created_at, kind, pubkey, sig, tags, positive, reacted_event_id, reacted_user_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+            statements.insert(insert, id, content, created_at, kind, pubkey, sig, tagsJson, !content.equals("-"), reacted_event_id, reacted_user_id);
+            saveTags(statements);
 
             if (!pubkey.equals(userPubKey) && reacted_user_id.equals(userPubKey)) {
-                return saveNotification(database, reacted_event_id, 0, null);
+                return saveNotification(statements, reacted_event_id, 0, null);
             }
 
             return 1;
@@ -576,59 +519,43 @@ public class Event {
         return 0;
     }
 
-    protected int saveUserMeta(SQLiteDatabase database) throws JSONException {
+    protected int saveUserMeta(EventStatements statements) throws JSONException {
         JSONObject userContent = new JSONObject(content);
-        String query = "SELECT created_at, name, tags FROM nostros_users WHERE id = ?";
-        @SuppressLint("Recycle") Cursor cursor = database.rawQuery(query, new String[] {pubkey});
+        String query = "SELECT created_at FROM nostros_users WHERE id = ?";
+        long savedCreatedAt = statements.queryForLong(query, -1, pubkey);
 
         String nip05 = userContent.optString("nip05");
         String lnurl = userContent.optString("lud06");
         String ln_address = userContent.optString("lud16");
         String name = userContent.optString("name");
+        String picture = userContent.optString("picture");
+        String about = userContent.optString("about");
+        String banner = userContent.optString("banner");
+        String mainRelay = userContent.optString("main_relay");
 
-        ContentValues values = new ContentValues();
-        values.put("name", name);
-        values.put("picture", userContent.optString("picture"));
-        values.put("about", userContent.optString("about"));
-        values.put("banner", userContent.optString("banner"));
-        values.put("lnurl", lnurl);
-        values.put("ln_address", ln_address);
-        values.put("nip05", nip05);
-        values.put("main_relay", userContent.optString("main_relay"));
-        values.put("created_at", created_at);
-        if (cursor.getCount() == 0) {
-            values.put("valid_nip05", validateNip05(nip05) ? 1 : 0);
-            values.put("zap_pubkey", getZapPubkey(lnurl, ln_address));
-            values.put("id", pubkey);
-            values.put("blocked", 0);
-            database.insert("nostros_users", null, values);
+        if (savedCreatedAt == -1) {
+            String insert = "INSERT INTO nostros_users(id, name, picture, about, banner, lnurl, ln_address, nip05, main_relay, created_at, valid_nip05, zap_pubkey, blocked) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0)";
+            statements.insert(insert, pubkey, name, picture, about, banner, lnurl, ln_address, nip05, mainRelay, created_at,
+                    validateNip05(nip05) ? 1 : 0, getZapPubkey(lnurl, ln_address));
 
             return 1;
-        } else if (cursor.moveToFirst()){
-            String whereClause = "id = ?";
-            String[] whereArgs = new String[]{
-                    this.pubkey
-            };
-            if (created_at > cursor.getInt(0)) {
-                values.put("zap_pubkey", getZapPubkey(lnurl, ln_address));
-                values.put("valid_nip05", validateNip05(nip05) ? 1 : 0);
-                database.update("nostros_users", values, whereClause, whereArgs);
-                return 1;
-            } else if (created_at == cursor.getInt(0)) {
-                ContentValues putValues = new ContentValues();
-                putValues.put("banner", userContent.optString("banner"));
-                database.update("nostros_users", putValues, whereClause, whereArgs);
-            }
+        } else if (created_at > savedCreatedAt) {
+            String update = "UPDATE nostros_users SET name = ?, picture = ?, about = ?, banner = ?, lnurl = ?, ln_address = ?, nip05 = ?, main_relay = ?, created_at = ?, zap_pubkey = ?, valid_nip05 = ? WHERE id = ?";
+            statements.update(update, name, picture, about, banner, lnurl, ln_address, nip05, mainRelay, created_at,
+                    getZapPubkey(lnurl, ln_address), validateNip05(nip05) ? 1 : 0, pubkey);
+            return 1;
+        } else if (created_at == savedCreatedAt) {
+            String update = "UPDATE nostros_users SET banner = ? WHERE id = ?";
+            statements.update(update, banner, pubkey);
         }
 
         return 0;
     }
 
-    protected int saveZap(SQLiteDatabase database, String userPubKey) throws JSONException {
-        String query = "SELECT created_at FROM nostros_zaps WHERE id = ?";
-        @SuppressLint("Recycle") Cursor cursor = database.rawQuery(query, new String[] {id});
+    protected int saveZap(EventStatements statements, String userPubKey) throws JSONException {
+        String query = "SELECT COUNT(*) FROM nostros_zaps WHERE id = ?";
 
-        if (cursor.getCount() == 0) {
+        if (!statements.exists(query, id)) {
             JSONArray pTags = filterTags("p");
             JSONArray eTags = filterTags("e");
             JSONArray bolt11Tags = filterTags("bolt11");
@@ -659,29 +586,15 @@ public class Event {
                 preimage = preimageTags.getJSONArray(preimageTags.length() - 1).getString(1);
             }
 
-            String userQuery = "SELECT created_at FROM nostros_users WHERE zap_pubkey = ? AND id = ?";
-            @SuppressLint("Recycle") Cursor userCursor = database.rawQuery(userQuery, new String[] {pubkey, zapped_user_id});
-
-            if (userCursor.moveToFirst()) {
-                ContentValues values = new ContentValues();
-                values.put("id", id);
-                values.put("content", content);
-                values.put("created_at", created_at);
-                values.put("kind", kind);
-                values.put("pubkey", pubkey);
-                values.put("sig", sig);
-                values.put("tags", tags.toString());
-                values.put("amount", amount);
-                values.put("zapped_user_id", zapped_user_id);
-                values.put("zapped_event_id", zapped_event_id);
-                values.put("zapper_user_id", zapper_user_id);
-                values.put("preimage", preimage);
-
-                database.insert("nostros_zaps", null, values);
+            String userQuery = "SELECT COUNT(*) FROM nostros_users WHERE zap_pubkey = ? AND id = ?";
+            if (statements.exists(userQuery, pubkey, zapped_user_id)) {
+                String insert = "INSERT INTO nostros_zaps(id, content, created_at, kind, pubkey, sig, tags, amount, zapped_user_id, zapped_event_id, zapper_user_id, preimage) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+                statements.insert(insert, id, content, created_at, kind, pubkey, sig, tagsJson, amount, zapped_user_id, zapped_event_id, zapper_user_id, preimage);
+                saveTags(statements);
             }
 
             if (zapped_user_id.equals(userPubKey) && !pubkey.equals(userPubKey)) {
-                return saveNotification(database, zapped_event_id, amount, zapper_user_id);
+                return saveNotification(statements, zapped_event_id, amount, zapper_user_id);
             }
 
             return 1;
@@ -690,34 +603,24 @@ public class Event {
         return 0;
     }
 
-    protected int savePets(SQLiteDatabase database) throws JSONException {
+    protected int savePets(EventStatements statements) throws JSONException {
+        // An empty users table leaves no pet_at to compare against, so nothing is saved
         String queryLast = "SELECT pet_at FROM nostros_users ORDER BY pet_at DESC LIMIT 1";
-        Cursor cursorLast = database.rawQuery(queryLast, new String[] {});
-        if (cursorLast.moveToFirst() && created_at > cursorLast.getInt(0)) {
-            ContentValues valuesIntial = new ContentValues();
-            valuesIntial.put("contact", 0);
-            String whereClauseInitial = "id = ?";
-            database.update("nostros_users", valuesIntial, whereClauseInitial, new String[]{});
-
-            for (int i = 0; i < tags.length(); ++i) {
-                JSONArray tag = tags.getJSONArray(i);
+        if (created_at > statements.queryForLong(queryLast, Long.MAX_VALUE)) {
+            String resetContacts = "UPDATE nostros_users SET contact = 0 WHERE id = ?";
+            statements.update(resetContacts);
+
+            for (int i = 0; i < getTags().length(); ++i) {
+                JSONArray tag = getTags().getJSONArray(i);
                 String petId = tag.getString(1);
-                String query = "SELECT * FROM nostros_users WHERE id = ?";
-                Cursor cursor = database.rawQuery(query, new String[] {petId});
-                ContentValues values = new ContentValues();
-                values.put("pet_at", created_at);
-                values.put("contact", 1);
-                values.put("blocked", 0);
-
-                if (cursor.getCount() == 0) {
-                    values.put("id", petId);
-                    database.insert("nostros_users", null, values);
+                String query = "SELECT COUNT(*) FROM nostros_users WHERE id = ?";
+
+                if (!statements.exists(query, petId)) {
+                    String insert = "INSERT INTO nostros_users(id, pet_at, contact, blocked) VALUES (?, ?, 1, 0)";
+                    statements.insert(insert, petId, created_at);
                 } else {
-                    String whereClause = "id = ?";
-                    String[] whereArgs = new String[] {
-                            petId
-                    };
-                    database.update("nostros_users", values, whereClause, whereArgs);
+                    String update = "UPDATE nostros_users SET pet_at = ?, contact = 1, blocked = 0 WHERE id = ?";
+                    statements.update(update, created_at, petId);
                 }
             }
 
@@ -727,28 +630,19 @@ public class Event {
         return 0;
     }
 
-    protected int saveFollower(SQLiteDatabase database, String userPubKey) throws JSONException {
+    protected int saveFollower(EventStatements statements, String userPubKey) throws JSONException {
         JSONArray pTags = filterTags("p");
         for (int i = 0; i < pTags.length(); ++i) {
             JSONArray tag = pTags.getJSONArray(i);
             if (tag.getString(1).equals(userPubKey)) {
-                String query = "SELECT * FROM nostros_users WHERE id = ?";
-                Cursor cursor = database.rawQuery(query, new String[] {pubkey});
-
-                ContentValues values = new ContentValues();
-                if (cursor.getCount() == 0) {
-                    values.put("id", pubkey);
-                    values.put("follower", true);
-                    values.put("follower_at", created_at);
-                    database.insert("nostros_users", null, values);
+                String query = "SELECT COUNT(*) FROM nostros_users WHERE id = ?";
+
+                if (!statements.exists(query, pubkey)) {
+                    String insert = "INSERT INTO nostros_users(id, follower, follower_at) VALUES (?, 1, ?)";
+                    statements.insert(insert, pubkey, created_at);
                 } else {
-                    String whereClause = "id = ?";
-                    String[] whereArgs = new String[] {
-                            this.pubkey
-                    };
-                    values.put("follower", true);
-                    values.put("follower_at", created_at);
-                    database.update("nostros_users", values, whereClause, whereArgs);
+                    String update = "UPDATE nostros_users SET follower = 1, follower_at = ? WHERE id = ?";
+                    statements.update(update, created_at, pubkey);
                 }
             }
         }
@@ -0,0 +1,167 @@
+package com.nostros.classes;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class EventIdIndex {
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes;
+    private final long windowMs;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // 32-byte event id packed into four longs, roughly a third of the memory of the hex String.
+    private static final class IdKey {
+        final long a;
+        final long b;
+        final long c;
+        final long d;
+        long seenAt;
+
+        IdKey(long a, long b, long c, long d) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof IdKey)) return false;
+            IdKey other = (IdKey) o;
+            return a == other.a && b == other.b && c == other.c && d == other.d;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (d ^ (d >>> 32));
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class Stripe extends LinkedHashMap<IdKey, IdKey> {
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, false);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<IdKey, IdKey> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        void expire(long now) {
+            Iterator<IdKey> iterator = values().iterator();
+            while (iterator.hasNext()) {
+                if (now - iterator.next().seenAt <= windowMs) {
+                    return;
+                }
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public EventIdIndex(int capacity, long windowMs) {
+        this.windowMs = windowMs;
+        stripes = new Stripe[STRIPES];
+        int stripeCapacity = Math.max(1, capacity / STRIPES);
+        for (int i = 0; i < STRIPES; ++i) {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+    }
+
+    // Returns true when the id was not present and has been recorded, false for a duplicate.
+    // Ids that are not 64 hex chars are never recorded and always reported as new.
+    public boolean add(String id) {
+        IdKey key = toKey(id);
+        if (key == null) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        key.seenAt = now;
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            stripe.expire(now);
+            if (stripe.containsKey(key)) {
+                hits.incrementAndGet();
+                return false;
+            }
+            stripe.put(key, key);
+        }
+        misses.incrementAndGet();
+        return true;
+    }
+
+    public void remove(String id) {
+        IdKey key = toKey(id);
+        if (key == null) {
+            return;
+        }
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            stripe.remove(key);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    private Stripe stripeFor(IdKey key) {
+        return stripes[(int) (key.a & (STRIPES - 1))];
+    }
+
+    private static IdKey toKey(String id) {
+        if (id == null || id.length() != 64) {
+            return null;
+        }
+        long[] words = new long[4];
+        for (int w = 0; w < 4; ++w) {
+            long value = 0;
+            for (int i = w * 16; i < w * 16 + 16; ++i) {
+                int digit = Character.digit(id.charAt(i), 16);
+                if (digit < 0) {
+                    return null;
+                }
+                value = (value << 4) | digit;
+            }
+            words[w] = value;
+        }
+        return new IdKey(words[0], words[1], words[2], words[3]);
+    }
+}
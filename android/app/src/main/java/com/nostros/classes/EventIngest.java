@@ -0,0 +1,193 @@
+package com.nostros.classes;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class EventIngest {
+    private static final int QUEUE_CAPACITY = 2000;
+    private static final int BATCH_SIZE = 200;
+    private static final long FLUSH_INTERVAL_MS = 250;
+    private static final int SEEN_CAPACITY = 65536;
+    private static final long SEEN_WINDOW_MS = 6 * 60 * 60 * 1000;
+    private static final long CHECKPOINT_IDLE_MS = 2000;
+    private static final long SHUTDOWN_TIMEOUT_MS = 2000;
+
+    private final Database database;
+    private final BlockingQueue<PendingEvent> queue;
+    private final Thread writer;
+    private final EventIdIndex seenEvents;
+    private final EventVerifier verifier;
+
+    public interface Listener {
+        void onEventSaved(Event event, int action);
+        void onEventRejected(Event event);
+        // The event could not be stored; its id is forgotten so a re-delivery is saved again.
+        void onEventFailed(Event event);
+    }
+
+    private static class PendingEvent {
+        final Event event;
+        final String userPubKey;
+        final String relayUrl;
+        final Listener listener;
+        final boolean known;
+
+        PendingEvent(Event event, String userPubKey, String relayUrl, Listener listener, boolean known) {
+            this.event = event;
+            this.userPubKey = userPubKey;
+            this.relayUrl = relayUrl;
+            this.listener = listener;
+            this.known = known;
+        }
+    }
+
+    public EventIngest(Database databaseEntity) {
+        database = databaseEntity;
+        queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        seenEvents = new EventIdIndex(SEEN_CAPACITY, SEEN_WINDOW_MS);
+        verifier = new EventVerifier(database::isEventStored);
+        writer = new Thread(this::drain, "EventIngest");
+        writer.start();
+    }
+
+    public EventIdIndex getSeenEvents() {
+        return seenEvents;
+    }
+
+    public EventVerifier getVerifier() {
+        return verifier;
+    }
+
+    // Returns false when another relay already delivered this id.
+    public boolean markSeen(String id) {
+        return seenEvents.add(id);
+    }
+
+    // For events dropped before verification, so a copy from another subscription is not a duplicate.
+    public void forget(String id) {
+        seenEvents.remove(id);
+    }
+
+    public void submit(Event event, String userPubKey, String relayUrl, Listener listener) {
+        verifier.submit(relayUrl, event, (verifiedEvent, verdict) -> {
+            if (verdict == EventVerifier.Verdict.INVALID) {
+                // Forget the id so a correctly signed copy from another relay is not dropped as a duplicate
+                seenEvents.remove(verifiedEvent.getId());
+                Log.d("EventIngest", "INVALID " + relayUrl + " __ " + verifiedEvent.getId());
+                listener.onEventRejected(verifiedEvent);
+            } else {
+                enqueue(verifiedEvent, userPubKey, relayUrl, listener, verdict == EventVerifier.Verdict.KNOWN);
+            }
+        });
+    }
+
+    // Stops verifying and lets the writer finish its current batch; events still queued are
+    // dropped, relays send them again on the next connection.
+    public void shutdown() {
+        verifier.shutdown();
+        writer.interrupt();
+        try {
+            writer.join(SHUTDOWN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Verifications avoided by the seen index and the stored-id check, priced at the measured average.
+    public long getSavedVerifyNanos() {
+        return (seenEvents.getHits() + verifier.getKnown()) * verifier.getAverageVerifyNanos();
+    }
+
+    // Blocks the verifier (and through it the socket reader) when the writer falls behind,
+    // so relays are throttled by TCP instead of growing the heap.
+    private void enqueue(Event event, String userPubKey, String relayUrl, Listener listener, boolean known) throws InterruptedException {
+        queue.put(new PendingEvent(event, userPubKey, relayUrl, listener, known));
+    }
+
+    private void drain() {
+        List<PendingEvent> batch = new ArrayList<>(BATCH_SIZE);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                PendingEvent first = queue.poll(CHECKPOINT_IDLE_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    database.checkpoint();
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS);
+                while (batch.size() < BATCH_SIZE) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingEvent next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, BATCH_SIZE - batch.size());
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingEvent> batch) {
+        int[] actions = new int[batch.size()];
+        boolean[] failed = new boolean[batch.size()];
+        try {
+            database.beginWrite();
+            try {
+                for (int i = 0; i < batch.size(); ++i) {
+                    PendingEvent pending = batch.get(i);
+                    // A failed event rolls back its own partial rows, not the rest of the batch
+                    database.instance.execSQL("SAVEPOINT ev");
+                    try {
+                        if (pending.known) {
+                            database.saveEventRelay(pending.event, pending.relayUrl);
+                        } else {
+                            actions[i] = database.saveEvent(pending.event, pending.userPubKey, pending.relayUrl);
+                        }
+                    } catch (RuntimeException e) {
+                        Log.d("EventIngest", "SAVE ERROR " + pending.event.getId() + " __ " + e);
+                        failed[i] = true;
+                        database.instance.execSQL("ROLLBACK TO ev");
+                    }
+                    database.instance.execSQL("RELEASE ev");
+                }
+                database.instance.setTransactionSuccessful();
+            } finally {
+                database.instance.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            Log.d("EventIngest", "BATCH ERROR " + batch.size() + " __ " + e);
+            for (PendingEvent pending : batch) {
+                fail(pending);
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); ++i) {
+            PendingEvent pending = batch.get(i);
+            if (failed[i]) {
+                fail(pending);
+            } else {
+                pending.listener.onEventSaved(pending.event, actions[i]);
+            }
+        }
+    }
+
+    private void fail(PendingEvent pending) {
+        seenEvents.remove(pending.event.getId());
+        pending.listener.onEventFailed(pending.event);
+    }
+}
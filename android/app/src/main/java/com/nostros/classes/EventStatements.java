@@ -0,0 +1,97 @@
+package com.nostros.classes;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Compiled statements for the Event.save handlers, keyed by their SQL and reused across
+// events so SQLite parses each one once instead of on every insert and existence check.
+public class EventStatements {
+    private final SQLiteDatabase database;
+    private final Map<String, SQLiteStatement> statements = new HashMap<>();
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong saveNanos = new AtomicLong();
+
+    public EventStatements(SQLiteDatabase databaseInstance) {
+        database = databaseInstance;
+    }
+
+    // Row id of the new row, or -1 when an INSERT OR IGNORE hit an existing one.
+    public synchronized long insert(String sql, Object... args) {
+        return bind(sql, args).executeInsert();
+    }
+
+    public synchronized int update(String sql, Object... args) {
+        return bind(sql, args).executeUpdateDelete();
+    }
+
+    // First column of the first row, or the fallback when there are no rows.
+    public synchronized long queryForLong(String sql, long fallback, Object... args) {
+        try {
+            return bind(sql, args).simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return fallback;
+        }
+    }
+
+    public boolean exists(String sql, Object... args) {
+        return queryForLong(sql, 0, args) > 0;
+    }
+
+    public void record(long nanos) {
+        saves.incrementAndGet();
+        saveNanos.addAndGet(nanos);
+    }
+
+    public long getSaves() {
+        return saves.get();
+    }
+
+    public long getAverageSaveNanos() {
+        long count = saves.get();
+        return count == 0 ? 0 : saveNanos.get() / count;
+    }
+
+    public synchronized int getCompiled() {
+        return statements.size();
+    }
+
+    public synchronized void close() {
+        for (SQLiteStatement statement : statements.values()) {
+            statement.close();
+        }
+        statements.clear();
+    }
+
+    private SQLiteStatement bind(String sql, Object[] args) {
+        SQLiteStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = database.compileStatement(sql);
+            statements.put(sql, statement);
+        }
+        statement.clearBindings();
+        for (int i = 0; i < args.length; ++i) {
+            Object arg = args[i];
+            if (arg == null) {
+                statement.bindNull(i + 1);
+            } else if (arg instanceof String) {
+                statement.bindString(i + 1, (String) arg);
+            } else if (arg instanceof Boolean) {
+                statement.bindLong(i + 1, (Boolean) arg ? 1 : 0);
+            } else if (arg instanceof Double || arg instanceof Float) {
+                statement.bindDouble(i + 1, ((Number) arg).doubleValue());
+            } else if (arg instanceof Number) {
+                statement.bindLong(i + 1, ((Number) arg).longValue());
+            } else if (arg instanceof byte[]) {
+                statement.bindBlob(i + 1, (byte[]) arg);
+            } else {
+                statement.bindString(i + 1, arg.toString());
+            }
+        }
+        return statement;
+    }
+}
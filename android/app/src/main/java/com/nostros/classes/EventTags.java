@@ -0,0 +1,150 @@
+package com.nostros.classes;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Single-letter tags of the stored events in nostros_event_tags, so #e/#p/#t/#d filters are
+// index lookups instead of scans over the tags JSON. Rows stored before the table existed
+// are filled in by rebuild(), which resumes from nostros_event_tags_rebuild after a restart.
+public class EventTags {
+    public static final String[] TABLES = new String[] {
+            "nostros_notes",
+            "nostros_direct_messages",
+            "nostros_reactions",
+            "nostros_group_messages",
+            "nostros_zaps",
+            "nostros_lists",
+            "nostros_relay_metadata"
+    };
+    private static final int REBUILD_CHUNK = 500;
+
+    private final Database database;
+    private volatile boolean rebuilding;
+    private volatile boolean complete;
+    private final AtomicLong rebuiltEvents = new AtomicLong();
+
+    public EventTags(Database databaseEntity) {
+        database = databaseEntity;
+    }
+
+    public static void save(EventStatements statements, String eventId, String kind, JSONArray tags) {
+        String query = "INSERT OR IGNORE INTO nostros_event_tags(event_id, kind, name, value, position) VALUES (?, ?, ?, ?, ?)";
+        for (int i = 0; i < tags.length(); ++i) {
+            JSONArray tag = tags.optJSONArray(i);
+            if (tag == null || tag.length() < 2) {
+                continue;
+            }
+            String name = tag.optString(0, "");
+            String value = tag.optString(1, "");
+            if (name.length() == 1 && !value.isEmpty()) {
+                statements.insert(query, eventId, kind, name, normalize(name, value), i);
+            }
+        }
+    }
+
+    // Hashtags are matched case-insensitively, so t values are stored and looked up in lower case.
+    public static String normalize(String name, String value) {
+        return name.equals("t") ? value.toLowerCase(Locale.ROOT) : value;
+    }
+
+    // Queues every table for a full pass; rows already indexed are ignored by the inserts.
+    public void reset() {
+        complete = false;
+        for (String table : TABLES) {
+            database.instance.execSQL("INSERT OR REPLACE INTO nostros_event_tags_rebuild(table_name, last_rowid) VALUES (?, 0)", new Object[] {table});
+        }
+    }
+
+    // True while some stored events may still be missing from the table.
+    public boolean isPending() {
+        if (complete) {
+            return false;
+        }
+        Cursor cursor = database.instance.rawQuery("SELECT COUNT(*) FROM nostros_event_tags_rebuild", new String[] {});
+        boolean pending = cursor.moveToFirst() && cursor.getLong(0) > 0;
+        cursor.close();
+        complete = !pending;
+        return pending;
+    }
+
+    // Indexes the queued tables in chunks, each in its own write so event ingest keeps flowing.
+    public synchronized long rebuild() {
+        rebuilding = true;
+        long events = 0;
+        try {
+            List<String> tables = new ArrayList<>();
+            Cursor queued = database.instance.rawQuery("SELECT table_name FROM nostros_event_tags_rebuild", new String[] {});
+            while (queued.moveToNext()) {
+                tables.add(queued.getString(0));
+            }
+            queued.close();
+
+            for (String table : tables) {
+                int indexed;
+                do {
+                    indexed = rebuildChunk(table);
+                    events += indexed;
+                    rebuiltEvents.addAndGet(indexed);
+                } while (indexed == REBUILD_CHUNK && !database.isClosed());
+            }
+        } catch (RuntimeException e) {
+            Log.d("EventTags", "REBUILD ERROR " + e);
+        } finally {
+            rebuilding = false;
+        }
+        return events;
+    }
+
+    private int rebuildChunk(String table) {
+        database.beginWrite();
+        try {
+            Cursor progress = database.instance.rawQuery("SELECT last_rowid FROM nostros_event_tags_rebuild WHERE table_name = ?", new String[] {table});
+            long lastRowid = progress.moveToFirst() ? progress.getLong(0) : -1;
+            progress.close();
+            if (lastRowid < 0) {
+                database.instance.setTransactionSuccessful();
+                return 0;
+            }
+
+            String query = "SELECT rowid, id, kind, tags FROM " + table + " WHERE rowid > ? ORDER BY rowid LIMIT " + REBUILD_CHUNK;
+            Cursor cursor = database.instance.rawQuery(query, new String[] {String.valueOf(lastRowid)});
+            int count = 0;
+            while (cursor.moveToNext()) {
+                lastRowid = cursor.getLong(0);
+                count++;
+                try {
+                    save(database.statements, cursor.getString(1), cursor.getString(2), new JSONArray(cursor.getString(3)));
+                } catch (JSONException e) {
+                    Log.d("EventTags", "INVALID TAGS " + table + " __ " + cursor.getString(1));
+                }
+            }
+            cursor.close();
+
+            if (count < REBUILD_CHUNK) {
+                database.instance.execSQL("DELETE FROM nostros_event_tags_rebuild WHERE table_name = ?", new Object[] {table});
+            } else {
+                database.instance.execSQL("UPDATE nostros_event_tags_rebuild SET last_rowid = ? WHERE table_name = ?", new Object[] {lastRowid, table});
+            }
+            database.instance.setTransactionSuccessful();
+            return count;
+        } finally {
+            database.instance.endTransaction();
+        }
+    }
+
+    public boolean isRebuilding() {
+        return rebuilding;
+    }
+
+    public long getRebuiltEvents() {
+        return rebuiltEvents.get();
+    }
+}
@@ -0,0 +1,150 @@
+package com.nostros.classes;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class EventVerifier {
+    private static final int QUEUE_CAPACITY = 1000;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, ArrayDeque<Task>> lanes = new HashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong known = new AtomicLong();
+    private final AtomicLong verifyNanos = new AtomicLong();
+    private final KnownIds knownIds;
+
+    public enum Verdict { VALID, INVALID, KNOWN }
+
+    public interface Listener {
+        void onVerified(Event event, Verdict verdict) throws InterruptedException;
+    }
+
+    public interface KnownIds {
+        boolean isKnown(Event event);
+    }
+
+    private static class Task {
+        final Event event;
+        final Listener listener;
+        volatile boolean done;
+        volatile Verdict verdict;
+
+        Task(Event event, Listener listener) {
+            this.event = event;
+            this.listener = listener;
+        }
+    }
+
+    public EventVerifier(KnownIds knownIdsCheck) {
+        knownIds = knownIdsCheck;
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors());
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "EventVerifier-" + count.incrementAndGet());
+            }
+        };
+        // A saturated pool verifies on the submitting socket thread, which throttles that relay.
+        executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUE_CAPACITY), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    // Events are verified in parallel but handed to the listener in submission order per lane,
+    // so a relay's events reach the writer in the order it sent them.
+    public void submit(String lane, Event event, Listener listener) {
+        ArrayDeque<Task> queue = laneFor(lane);
+        Task task = new Task(event, listener);
+        synchronized (queue) {
+            queue.add(task);
+        }
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            task.verdict = verify(event);
+            task.done = true;
+            deliver(queue);
+        });
+    }
+
+    // Already stored events skip the BIP-340 check entirely, relays re-send them constantly.
+    private Verdict verify(Event event) {
+        if (knownIds.isKnown(event)) {
+            known.incrementAndGet();
+            return Verdict.KNOWN;
+        }
+        long start = System.nanoTime();
+        boolean valid = event.isValid();
+        verifyNanos.addAndGet(System.nanoTime() - start);
+        if (valid) {
+            verified.incrementAndGet();
+            return Verdict.VALID;
+        }
+        rejected.incrementAndGet();
+        return Verdict.INVALID;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public long getVerified() {
+        return verified.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getKnown() {
+        return known.get();
+    }
+
+    public long getAverageVerifyNanos() {
+        long checked = verified.get() + rejected.get();
+        return checked == 0 ? 0 : verifyNanos.get() / checked;
+    }
+
+    public int getQueueDepth() {
+        return pending.get();
+    }
+
+    public int getWorkers() {
+        return executor.getCorePoolSize();
+    }
+
+    private ArrayDeque<Task> laneFor(String lane) {
+        synchronized (lanes) {
+            ArrayDeque<Task> queue = lanes.get(lane);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                lanes.put(lane, queue);
+            }
+            return queue;
+        }
+    }
+
+    private void deliver(ArrayDeque<Task> queue) {
+        synchronized (queue) {
+            while (!queue.isEmpty() && queue.peek().done) {
+                Task task = queue.poll();
+                pending.decrementAndGet();
+                try {
+                    task.listener.onVerified(task.event, task.verdict);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.nostros.classes;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+// NIP-01 filters of the open subscriptions, compiled per relay. Each filter is indexed under its
+// most selective field (ids, authors, a tag or kinds), so an event is only checked against the
+// filters that share one of its values plus the few filters that constrain none of them.
+public class FilterMatcher {
+    private static class CompiledFilter {
+        final String subId;
+        Set<String> ids;
+        Set<String> authors;
+        Set<String> kinds;
+        final Map<String, Set<String>> tags = new HashMap<>();
+        long since = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        final boolean matchAll;
+
+        CompiledFilter(String subId, boolean matchAll) {
+            this.subId = subId;
+            this.matchAll = matchAll;
+        }
+
+        boolean matches(Event event) {
+            if (matchAll) {
+                return true;
+            }
+            if (ids != null && !ids.contains(event.getId())) {
+                return false;
+            }
+            if (authors != null && !authors.contains(event.getPubkey())) {
+                return false;
+            }
+            if (kinds != null && !kinds.contains(event.getKind())) {
+                return false;
+            }
+            if (event.getCreatedAt() < since || event.getCreatedAt() > until) {
+                return false;
+            }
+            for (Map.Entry<String, Set<String>> tag : tags.entrySet()) {
+                if (!hasTag(event, tag.getKey(), tag.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class FilterIndex {
+        final Map<String, List<CompiledFilter>> byId = new HashMap<>();
+        final Map<String, List<CompiledFilter>> byAuthor = new HashMap<>();
+        final Map<String, List<CompiledFilter>> byTag = new HashMap<>();
+        final Map<String, List<CompiledFilter>> byKind = new HashMap<>();
+        final List<CompiledFilter> unindexed = new ArrayList<>();
+        final Map<String, List<CompiledFilter>> bySubscription = new HashMap<>();
+        int filters;
+    }
+
+    private final Map<String, FilterIndex> relays = new HashMap<>();
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // A request that cannot be compiled matches everything, so a parse error never loses events.
+    public synchronized void register(String relayUrl, String subId, String request) {
+        unregister(relayUrl, subId);
+        List<CompiledFilter> compiled = new ArrayList<>();
+        try {
+            JSONArray frame = new JSONArray(request);
+            for (int i = 2; i < frame.length(); ++i) {
+                compiled.add(compile(subId, frame.getJSONObject(i)));
+            }
+        } catch (JSONException e) {
+            Log.d("FilterMatcher", "UNCOMPILED " + subId + " __ " + e);
+            compiled.clear();
+            compiled.add(new CompiledFilter(subId, true));
+        }
+
+        FilterIndex index = indexFor(relayUrl);
+        index.bySubscription.put(subId, compiled);
+        for (CompiledFilter filter : compiled) {
+            index.filters++;
+            if (filter.ids != null) {
+                add(index.byId, filter.ids, filter);
+            } else if (filter.authors != null) {
+                add(index.byAuthor, filter.authors, filter);
+            } else if (!filter.tags.isEmpty()) {
+                Map.Entry<String, Set<String>> tag = filter.tags.entrySet().iterator().next();
+                Set<String> keys = new HashSet<>();
+                for (String value : tag.getValue()) {
+                    keys.add(tag.getKey() + ":" + value);
+                }
+                add(index.byTag, keys, filter);
+            } else if (filter.kinds != null) {
+                add(index.byKind, filter.kinds, filter);
+            } else {
+                index.unindexed.add(filter);
+            }
+        }
+    }
+
+    public synchronized void unregister(String relayUrl, String subId) {
+        FilterIndex index = relays.get(relayUrl);
+        if (index == null) {
+            return;
+        }
+        List<CompiledFilter> compiled = index.bySubscription.remove(subId);
+        if (compiled == null) {
+            return;
+        }
+        for (CompiledFilter filter : compiled) {
+            index.filters--;
+            if (filter.ids != null) {
+                remove(index.byId, filter.ids, filter);
+            } else if (filter.authors != null) {
+                remove(index.byAuthor, filter.authors, filter);
+            } else if (!filter.tags.isEmpty()) {
+                Map.Entry<String, Set<String>> tag = filter.tags.entrySet().iterator().next();
+                Set<String> keys = new HashSet<>();
+                for (String value : tag.getValue()) {
+                    keys.add(tag.getKey() + ":" + value);
+                }
+                remove(index.byTag, keys, filter);
+            } else if (filter.kinds != null) {
+                remove(index.byKind, filter.kinds, filter);
+            } else {
+                index.unindexed.remove(filter);
+            }
+        }
+    }
+
+    public synchronized void clear(String relayUrl) {
+        relays.remove(relayUrl);
+    }
+
+    // Subscriptions of the relay the event satisfies; empty means no open filter asked for it.
+    public synchronized List<String> match(String relayUrl, Event event) {
+        List<String> subIds = new ArrayList<>();
+        FilterIndex index = relays.get(relayUrl);
+        if (index != null) {
+            Set<CompiledFilter> candidates = new HashSet<>(index.unindexed);
+            collect(index.byId, event.getId(), candidates);
+            collect(index.byAuthor, event.getPubkey(), candidates);
+            collect(index.byKind, event.getKind(), candidates);
+            if (!index.byTag.isEmpty()) {
+                JSONArray tags = event.getTags();
+                for (int i = 0; i < tags.length(); ++i) {
+                    JSONArray tag = tags.optJSONArray(i);
+                    if (tag != null && tag.length() > 1) {
+                        collect(index.byTag, tag.optString(0) + ":" + tag.optString(1), candidates);
+                    }
+                }
+            }
+            for (CompiledFilter filter : candidates) {
+                if (filter.matches(event) && !subIds.contains(filter.subId)) {
+                    subIds.add(filter.subId);
+                }
+            }
+        }
+        if (subIds.isEmpty()) {
+            dropped.incrementAndGet();
+        } else {
+            matched.incrementAndGet();
+        }
+        return subIds;
+    }
+
+    public synchronized int getFilterCount() {
+        int count = 0;
+        for (FilterIndex index : relays.values()) {
+            count += index.filters;
+        }
+        return count;
+    }
+
+    public long getMatched() {
+        return matched.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    // limit is left to the relay: it applies to the subscription's backfill, not to single events.
+    private static CompiledFilter compile(String subId, JSONObject filter) throws JSONException {
+        CompiledFilter compiled = new CompiledFilter(subId, false);
+        Iterator<String> keys = filter.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (key.equals("ids")) {
+                compiled.ids = values(filter.getJSONArray(key));
+            } else if (key.equals("authors")) {
+                compiled.authors = values(filter.getJSONArray(key));
+            } else if (key.equals("kinds")) {
+                compiled.kinds = values(filter.getJSONArray(key));
+            } else if (key.equals("since")) {
+                compiled.since = filter.getLong(key);
+            } else if (key.equals("until")) {
+                compiled.until = filter.getLong(key);
+            } else if (key.length() == 2 && key.charAt(0) == '#') {
+                compiled.tags.put(key.substring(1), values(filter.getJSONArray(key)));
+            }
+        }
+        return compiled;
+    }
+
+    private static Set<String> values(JSONArray array) throws JSONException {
+        Set<String> values = new HashSet<>();
+        for (int i = 0; i < array.length(); ++i) {
+            values.add(array.get(i).toString());
+        }
+        return values;
+    }
+
+    private static boolean hasTag(Event event, String name, Set<String> values) {
+        JSONArray tags = event.getTags();
+        for (int i = 0; i < tags.length(); ++i) {
+            JSONArray tag = tags.optJSONArray(i);
+            if (tag != null && tag.length() > 1 && name.equals(tag.optString(0)) && values.contains(tag.optString(1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private FilterIndex indexFor(String relayUrl) {
+        FilterIndex index = relays.get(relayUrl);
+        if (index == null) {
+            index = new FilterIndex();
+            relays.put(relayUrl, index);
+        }
+        return index;
+    }
+
+    private static void add(Map<String, List<CompiledFilter>> index, Set<String> keys, CompiledFilter filter) {
+        for (String key : keys) {
+            List<CompiledFilter> filters = index.get(key);
+            if (filters == null) {
+                filters = new ArrayList<>();
+                index.put(key, filters);
+            }
+            filters.add(filter);
+        }
+    }
+
+    private static void remove(Map<String, List<CompiledFilter>> index, Set<String> keys, CompiledFilter filter) {
+        for (String key : keys) {
+            List<CompiledFilter> filters = index.get(key);
+            if (filters != null) {
+                filters.remove(filter);
+                if (filters.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+        }
+    }
+
+    private static void collect(Map<String, List<CompiledFilter>> index, String key, Set<CompiledFilter> candidates) {
+        List<CompiledFilter> filters = index.get(key);
+        if (filters != null) {
+            candidates.addAll(filters);
+        }
+    }
+}
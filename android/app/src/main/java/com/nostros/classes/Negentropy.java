@@ -0,0 +1,362 @@
+package com.nostros.classes;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nostr.util.NostrUtil;
+
+// Negentropy range-based set reconciliation (protocol V1, as used by NIP-77).
+// The initiator finds which ids it needs from, and has for, the other side; the
+// responder mode is what a relay runs and is used to reconcile against local data.
+public class Negentropy {
+    private static final int PROTOCOL_VERSION = 0x61;
+    private static final int ID_SIZE = 32;
+    private static final int FINGERPRINT_SIZE = 16;
+    private static final int BUCKETS = 16;
+    private static final int MODE_SKIP = 0;
+    private static final int MODE_FINGERPRINT = 1;
+    private static final int MODE_ID_LIST = 2;
+
+    public static class Storage {
+        private final List<Item> items = new ArrayList<>();
+        private boolean sealed;
+
+        public void insert(long createdAt, String id) {
+            if (sealed) {
+                throw new IllegalStateException("Storage already sealed");
+            }
+            items.add(new Item(createdAt, NostrUtil.hexToBytes(id)));
+        }
+
+        public void seal() {
+            if (!sealed) {
+                Collections.sort(items);
+                sealed = true;
+            }
+        }
+
+        public int size() {
+            return items.size();
+        }
+
+        Item get(int index) {
+            return items.get(index);
+        }
+
+        // First index in [begin, end) whose item is not below the bound.
+        int findLowerBound(int begin, int end, Item bound) {
+            int low = begin;
+            int high = end;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (items.get(middle).compareTo(bound) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        // SHA-256 over the 256-bit little-endian sum of the ids followed by the varint count.
+        byte[] fingerprint(int begin, int end) {
+            byte[] sum = new byte[ID_SIZE];
+            for (int i = begin; i < end; ++i) {
+                byte[] id = items.get(i).id;
+                int carry = 0;
+                for (int j = 0; j < ID_SIZE; ++j) {
+                    int next = (sum[j] & 0xff) + (id[j] & 0xff) + carry;
+                    sum[j] = (byte) next;
+                    carry = next >> 8;
+                }
+            }
+            ByteArrayOutputStream input = new ByteArrayOutputStream();
+            input.write(sum, 0, ID_SIZE);
+            writeVarInt(input, end - begin);
+            try {
+                byte[] hash = MessageDigest.getInstance("SHA-256").digest(input.toByteArray());
+                return Arrays.copyOf(hash, FINGERPRINT_SIZE);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    static class Item implements Comparable<Item> {
+        final long timestamp;
+        final byte[] id;
+
+        Item(long timestamp, byte[] id) {
+            this.timestamp = timestamp;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Item other) {
+            if (timestamp != other.timestamp) {
+                return timestamp < other.timestamp ? -1 : 1;
+            }
+            int length = Math.min(id.length, other.id.length);
+            for (int i = 0; i < length; ++i) {
+                int difference = (id[i] & 0xff) - (other.id[i] & 0xff);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return id.length - other.id.length;
+        }
+    }
+
+    public static class Result {
+        // null once the initiator has nothing left to ask
+        public final String output;
+        public final List<String> haveIds;
+        public final List<String> needIds;
+
+        Result(String output, List<String> haveIds, List<String> needIds) {
+            this.output = output;
+            this.haveIds = haveIds;
+            this.needIds = needIds;
+        }
+    }
+
+    private final Storage storage;
+    private boolean initiator;
+    private long lastTimestampIn;
+    private long lastTimestampOut;
+
+    public Negentropy(Storage sealedStorage) {
+        storage = sealedStorage;
+        storage.seal();
+    }
+
+    public String initiate() {
+        initiator = true;
+        lastTimestampOut = 0;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(PROTOCOL_VERSION);
+        splitRange(0, storage.size(), new Item(Long.MAX_VALUE, new byte[0]), output);
+        return NostrUtil.bytesToHex(output.toByteArray());
+    }
+
+    public Result reconcile(String message) {
+        Reader query = new Reader(NostrUtil.hexToBytes(message));
+        List<String> haveIds = new ArrayList<>();
+        List<String> needIds = new ArrayList<>();
+        lastTimestampIn = 0;
+        lastTimestampOut = 0;
+
+        ByteArrayOutputStream fullOutput = new ByteArrayOutputStream();
+        fullOutput.write(PROTOCOL_VERSION);
+
+        int protocolVersion = query.readByte();
+        if (protocolVersion < 0x60 || protocolVersion > 0x6f) {
+            throw new IllegalArgumentException("Invalid negentropy protocol version byte");
+        }
+        if (protocolVersion != PROTOCOL_VERSION) {
+            if (initiator) {
+                throw new IllegalArgumentException("Unsupported negentropy protocol version " + (protocolVersion - 0x60));
+            }
+            return new Result(NostrUtil.bytesToHex(fullOutput.toByteArray()), haveIds, needIds);
+        }
+
+        int storageSize = storage.size();
+        Item prevBound = new Item(0, new byte[0]);
+        int prevIndex = 0;
+        boolean skip = false;
+
+        while (query.remaining() > 0) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            Item currBound = decodeBound(query);
+            int mode = (int) query.readVarInt();
+            int lower = prevIndex;
+            int upper = storage.findLowerBound(prevIndex, storageSize, currBound);
+
+            if (mode == MODE_SKIP) {
+                skip = true;
+            } else if (mode == MODE_FINGERPRINT) {
+                byte[] theirFingerprint = query.readBytes(FINGERPRINT_SIZE);
+                if (!Arrays.equals(theirFingerprint, storage.fingerprint(lower, upper))) {
+                    if (skip) {
+                        skip = false;
+                        encodeBound(prevBound, output);
+                        writeVarInt(output, MODE_SKIP);
+                    }
+                    splitRange(lower, upper, currBound, output);
+                } else {
+                    skip = true;
+                }
+            } else if (mode == MODE_ID_LIST) {
+                long numIds = query.readVarInt();
+                Map<String, Boolean> theirIds = new HashMap<>();
+                for (long i = 0; i < numIds; ++i) {
+                    theirIds.put(NostrUtil.bytesToHex(query.readBytes(ID_SIZE)), Boolean.TRUE);
+                }
+                if (initiator) {
+                    skip = true;
+                    for (int i = lower; i < upper; ++i) {
+                        String id = NostrUtil.bytesToHex(storage.get(i).id);
+                        if (theirIds.remove(id) == null) {
+                            haveIds.add(id);
+                        }
+                    }
+                    needIds.addAll(theirIds.keySet());
+                } else {
+                    if (skip) {
+                        skip = false;
+                        encodeBound(prevBound, output);
+                        writeVarInt(output, MODE_SKIP);
+                    }
+                    encodeBound(currBound, output);
+                    writeVarInt(output, MODE_ID_LIST);
+                    writeVarInt(output, upper - lower);
+                    for (int i = lower; i < upper; ++i) {
+                        output.write(storage.get(i).id, 0, ID_SIZE);
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("Unexpected negentropy mode " + mode);
+            }
+
+            byte[] range = output.toByteArray();
+            fullOutput.write(range, 0, range.length);
+            prevIndex = upper;
+            prevBound = currBound;
+        }
+
+        String result = initiator && fullOutput.size() == 1 ? null : NostrUtil.bytesToHex(fullOutput.toByteArray());
+        return new Result(result, haveIds, needIds);
+    }
+
+    private void splitRange(int lower, int upper, Item upperBound, ByteArrayOutputStream output) {
+        int numElems = upper - lower;
+        if (numElems < BUCKETS * 2) {
+            encodeBound(upperBound, output);
+            writeVarInt(output, MODE_ID_LIST);
+            writeVarInt(output, numElems);
+            for (int i = lower; i < upper; ++i) {
+                output.write(storage.get(i).id, 0, ID_SIZE);
+            }
+            return;
+        }
+
+        int itemsPerBucket = numElems / BUCKETS;
+        int bucketsWithExtra = numElems % BUCKETS;
+        int curr = lower;
+        for (int i = 0; i < BUCKETS; ++i) {
+            int bucketSize = itemsPerBucket + (i < bucketsWithExtra ? 1 : 0);
+            byte[] fingerprint = storage.fingerprint(curr, curr + bucketSize);
+            curr += bucketSize;
+            Item nextBound = curr == upper ? upperBound : minimalBound(storage.get(curr - 1), storage.get(curr));
+            encodeBound(nextBound, output);
+            writeVarInt(output, MODE_FINGERPRINT);
+            output.write(fingerprint, 0, FINGERPRINT_SIZE);
+        }
+    }
+
+    private static Item minimalBound(Item prev, Item curr) {
+        if (curr.timestamp != prev.timestamp) {
+            return new Item(curr.timestamp, new byte[0]);
+        }
+        int sharedPrefixBytes = 0;
+        while (sharedPrefixBytes < ID_SIZE && curr.id[sharedPrefixBytes] == prev.id[sharedPrefixBytes]) {
+            sharedPrefixBytes++;
+        }
+        return new Item(curr.timestamp, Arrays.copyOf(curr.id, Math.min(ID_SIZE, sharedPrefixBytes + 1)));
+    }
+
+    // Timestamps are sent as 1 + the delta to the previous one in the message; 0 means infinity.
+    private Item decodeBound(Reader query) {
+        long timestamp = query.readVarInt();
+        timestamp = timestamp == 0 ? Long.MAX_VALUE : timestamp - 1;
+        if (lastTimestampIn == Long.MAX_VALUE || timestamp == Long.MAX_VALUE) {
+            lastTimestampIn = Long.MAX_VALUE;
+            timestamp = Long.MAX_VALUE;
+        } else {
+            timestamp += lastTimestampIn;
+            lastTimestampIn = timestamp;
+        }
+        int length = (int) query.readVarInt();
+        if (length > ID_SIZE) {
+            throw new IllegalArgumentException("Negentropy bound key too long");
+        }
+        return new Item(timestamp, query.readBytes(length));
+    }
+
+    private void encodeBound(Item bound, ByteArrayOutputStream output) {
+        if (bound.timestamp == Long.MAX_VALUE) {
+            lastTimestampOut = Long.MAX_VALUE;
+            writeVarInt(output, 0);
+        } else {
+            long delta = bound.timestamp - lastTimestampOut;
+            lastTimestampOut = bound.timestamp;
+            writeVarInt(output, delta + 1);
+        }
+        writeVarInt(output, bound.id.length);
+        output.write(bound.id, 0, bound.id.length);
+    }
+
+    // Base-128, most significant group first, high bit set on every byte but the last.
+    private static void writeVarInt(ByteArrayOutputStream output, long value) {
+        if (value == 0) {
+            output.write(0);
+            return;
+        }
+        byte[] groups = new byte[10];
+        int count = 0;
+        while (value != 0) {
+            groups[count++] = (byte) (value & 0x7f);
+            value >>>= 7;
+        }
+        for (int i = count - 1; i >= 0; --i) {
+            output.write(i > 0 ? (groups[i] | 0x80) : groups[i]);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] input) {
+            bytes = input;
+        }
+
+        int remaining() {
+            return bytes.length - position;
+        }
+
+        int readByte() {
+            if (position >= bytes.length) {
+                throw new IllegalArgumentException("Negentropy message ended early");
+            }
+            return bytes[position++] & 0xff;
+        }
+
+        byte[] readBytes(int length) {
+            if (remaining() < length) {
+                throw new IllegalArgumentException("Negentropy message ended early");
+            }
+            byte[] slice = Arrays.copyOfRange(bytes, position, position + length);
+            position += length;
+            return slice;
+        }
+
+        long readVarInt() {
+            long value = 0;
+            while (true) {
+                int next = readByte();
+                value = (value << 7) | (next & 0x7f);
+                if ((next & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
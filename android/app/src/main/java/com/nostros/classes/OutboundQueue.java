@@ -0,0 +1,89 @@
+package com.nostros.classes;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// Frames waiting for a relay socket to open. Bounded by queued bytes: on overflow
+// the oldest frames are dropped first, and a frame larger than the limit is never queued.
+public class OutboundQueue {
+    private static final int MAX_QUEUED_BYTES = 256 * 1024;
+
+    private static class Pending {
+        final String message;
+        final long queuedAt;
+
+        Pending(String message, long queuedAt) {
+            this.message = message;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private long queuedBytes;
+    private long dropped;
+    private long flushes;
+    private long lastFlushLatencyMs;
+    private long totalFlushLatencyMs;
+
+    public synchronized boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    public synchronized void offer(String message) {
+        int bytes = message.length();
+        if (bytes > MAX_QUEUED_BYTES) {
+            dropped++;
+            return;
+        }
+        while (queuedBytes + bytes > MAX_QUEUED_BYTES) {
+            queuedBytes -= pending.removeFirst().message.length();
+            dropped++;
+        }
+        pending.addLast(new Pending(message, System.currentTimeMillis()));
+        queuedBytes += bytes;
+    }
+
+    // Empties the queue in send order; latency is measured from the oldest queued frame.
+    public synchronized List<String> drain() {
+        List<String> messages = new ArrayList<>(pending.size());
+        if (pending.isEmpty()) {
+            return messages;
+        }
+        lastFlushLatencyMs = System.currentTimeMillis() - pending.peekFirst().queuedAt;
+        totalFlushLatencyMs += lastFlushLatencyMs;
+        flushes++;
+        for (Pending item : pending) {
+            messages.add(item.message);
+        }
+        pending.clear();
+        queuedBytes = 0;
+        return messages;
+    }
+
+    public synchronized void clear() {
+        dropped += pending.size();
+        pending.clear();
+        queuedBytes = 0;
+    }
+
+    public synchronized int getDepth() {
+        return pending.size();
+    }
+
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized long getLastFlushLatencyMs() {
+        return lastFlushLatencyMs;
+    }
+
+    public synchronized double getAverageFlushLatencyMs() {
+        return flushes == 0 ? 0 : (double) totalFlushLatencyMs / flushes;
+    }
+}
@@ -0,0 +1,223 @@
+package com.nostros.classes;
+
+import android.annotation.SuppressLint;
+import android.database.Cursor;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Outbox model (NIP-65): author filters of a REQ are split by each author's write relays
+// from nostros_relay_metadata, covering every author on `redundancy` relays of the pool
+// with a greedy set cover. Authors without a known write relay in the pool go to every relay.
+public class OutboxRouter {
+    private static final int DEFAULT_REDUNDANCY = 2;
+    private static final int QUERY_CHUNK = 500;
+
+    private final Database database;
+    private volatile boolean enabled;
+    private volatile int redundancy = DEFAULT_REDUNDANCY;
+
+    public OutboxRouter(Database databaseEntity) {
+        database = databaseEntity;
+    }
+
+    public void configure(boolean outbox, int redundancyFactor) {
+        enabled = outbox;
+        redundancy = Math.max(1, redundancyFactor);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getRedundancy() {
+        return redundancy;
+    }
+
+    // Returns the frame each relay should receive, or null when the message is not routed.
+    // Relays missing from the result get nothing.
+    public Map<Relay, String> route(String message, List<Relay> relays) {
+        if (!enabled || !message.startsWith("[\"REQ\"") || relays.isEmpty()) {
+            return null;
+        }
+        try {
+            JSONArray request = new JSONArray(message);
+            Set<String> authors = new HashSet<>();
+            for (int i = 2; i < request.length(); ++i) {
+                JSONArray filterAuthors = request.getJSONObject(i).optJSONArray("authors");
+                if (filterAuthors != null) {
+                    for (int j = 0; j < filterAuthors.length(); ++j) {
+                        authors.add(filterAuthors.getString(j));
+                    }
+                }
+            }
+            if (authors.isEmpty()) {
+                return null;
+            }
+
+            Map<Relay, Set<String>> assignment = cover(authors, relays);
+            Map<Relay, String> routed = new HashMap<>();
+            for (Relay relay : relays) {
+                Set<String> relayAuthors = assignment.get(relay);
+                JSONArray relayRequest = new JSONArray();
+                relayRequest.put(request.get(0));
+                relayRequest.put(request.get(1));
+                for (int i = 2; i < request.length(); ++i) {
+                    JSONObject filter = request.getJSONObject(i);
+                    JSONArray filterAuthors = filter.optJSONArray("authors");
+                    if (filterAuthors == null) {
+                        relayRequest.put(filter);
+                        continue;
+                    }
+                    JSONArray served = new JSONArray();
+                    for (int j = 0; j < filterAuthors.length(); ++j) {
+                        String author = filterAuthors.getString(j);
+                        if (relayAuthors != null && relayAuthors.contains(author)) {
+                            served.put(author);
+                        }
+                    }
+                    if (served.length() > 0) {
+                        JSONObject relayFilter = new JSONObject(filter.toString());
+                        relayFilter.put("authors", served);
+                        relayRequest.put(relayFilter);
+                    }
+                }
+                if (relayRequest.length() > 2) {
+                    routed.put(relay, relayRequest.toString());
+                }
+            }
+            return routed;
+        } catch (JSONException e) {
+            Log.d("OutboxRouter", e.toString());
+            return null;
+        }
+    }
+
+    private Map<Relay, Set<String>> cover(Set<String> authors, List<Relay> relays) {
+        Map<String, Relay> pool = new HashMap<>();
+        for (Relay relay : relays) {
+            pool.put(normalize(relay.url), relay);
+        }
+
+        Map<Relay, Set<String>> candidates = new HashMap<>();
+        Map<String, Integer> needed = new HashMap<>();
+        Set<String> uncovered = new HashSet<>(authors);
+        for (Map.Entry<String, Set<String>> entry : writeRelays(authors).entrySet()) {
+            int available = 0;
+            for (String url : entry.getValue()) {
+                Relay relay = pool.get(url);
+                if (relay != null) {
+                    Set<String> served = candidates.get(relay);
+                    if (served == null) {
+                        served = new HashSet<>();
+                        candidates.put(relay, served);
+                    }
+                    served.add(entry.getKey());
+                    available++;
+                }
+            }
+            if (available > 0) {
+                needed.put(entry.getKey(), Math.min(redundancy, available));
+                uncovered.remove(entry.getKey());
+            }
+        }
+
+        Map<Relay, Set<String>> assignment = new HashMap<>();
+        while (!needed.isEmpty()) {
+            Relay best = null;
+            int bestGain = 0;
+            for (Map.Entry<Relay, Set<String>> candidate : candidates.entrySet()) {
+                int gain = 0;
+                for (String author : candidate.getValue()) {
+                    if (needed.containsKey(author)) {
+                        gain++;
+                    }
+                }
+                if (gain > bestGain) {
+                    best = candidate.getKey();
+                    bestGain = gain;
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            Set<String> served = new HashSet<>();
+            for (String author : candidates.remove(best)) {
+                Integer remaining = needed.get(author);
+                if (remaining != null) {
+                    served.add(author);
+                    if (remaining <= 1) {
+                        needed.remove(author);
+                    } else {
+                        needed.put(author, remaining - 1);
+                    }
+                }
+            }
+            assignment.put(best, served);
+        }
+
+        if (!uncovered.isEmpty()) {
+            for (Relay relay : relays) {
+                Set<String> served = assignment.get(relay);
+                if (served == null) {
+                    served = new HashSet<>();
+                    assignment.put(relay, served);
+                }
+                served.addAll(uncovered);
+            }
+        }
+        return assignment;
+    }
+
+    // Latest kind-10002 list per author; "r" tags without a marker count as read and write.
+    private Map<String, Set<String>> writeRelays(Set<String> authors) {
+        Map<String, Set<String>> relaysByAuthor = new HashMap<>();
+        List<String> pending = new ArrayList<>(authors);
+        for (int start = 0; start < pending.size(); start += QUERY_CHUNK) {
+            List<String> chunk = pending.subList(start, Math.min(pending.size(), start + QUERY_CHUNK));
+            StringBuilder placeholders = new StringBuilder();
+            for (int i = 0; i < chunk.size(); ++i) {
+                placeholders.append(i == 0 ? "?" : ", ?");
+            }
+            String query = "SELECT pubkey, tags FROM nostros_relay_metadata WHERE pubkey IN (" + placeholders + ") ORDER BY created_at ASC";
+            @SuppressLint("Recycle") Cursor cursor = database.instance.rawQuery(query, chunk.toArray(new String[0]));
+            while (cursor.moveToNext()) {
+                Set<String> urls = new HashSet<>();
+                try {
+                    JSONArray tags = new JSONArray(cursor.getString(1));
+                    for (int i = 0; i < tags.length(); ++i) {
+                        JSONArray tag = tags.getJSONArray(i);
+                        if (tag.length() > 1 && tag.getString(0).equals("r")) {
+                            String marker = tag.optString(2, "");
+                            if (marker.isEmpty() || marker.equals("write")) {
+                                urls.add(normalize(tag.getString(1)));
+                            }
+                        }
+                    }
+                } catch (JSONException e) {
+                    Log.d("OutboxRouter", e.toString());
+                }
+                relaysByAuthor.put(cursor.getString(0), urls);
+            }
+            cursor.close();
+        }
+        return relaysByAuthor;
+    }
+
+    private static String normalize(String url) {
+        String normalized = url.trim().toLowerCase();
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+}
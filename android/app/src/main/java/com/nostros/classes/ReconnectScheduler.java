@@ -0,0 +1,136 @@
+package com.nostros.classes;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Exponential backoff with full jitter per relay. After FAILURES_TO_OPEN consecutive
+// failures the circuit opens and the relay is only retried once per OPEN_COOLDOWN_MS.
+public class ReconnectScheduler {
+    private static final long BASE_DELAY_MS = 1000;
+    private static final long MAX_DELAY_MS = 2 * 60 * 1000;
+    private static final int FAILURES_TO_OPEN = 8;
+    private static final long OPEN_COOLDOWN_MS = 10 * 60 * 1000;
+    private static final long STABLE_MS = 30 * 1000;
+
+    public enum State { DISCONNECTED, CONNECTING, CONNECTED, BACKOFF, OPEN }
+
+    public static class RelayState {
+        public final String url;
+        public State state = State.DISCONNECTED;
+        public int failures;
+        public long nextAttemptAt;
+        private ScheduledFuture<?> pending;
+
+        RelayState(String url) {
+            this.url = url;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, RelayState> states = new HashMap<>();
+
+    public ReconnectScheduler(ScheduledExecutorService sharedScheduler) {
+        scheduler = sharedScheduler;
+    }
+
+    // Returns false while a retry is scheduled, in backoff or with the circuit open: only that
+    // attempt may connect, which is marked CONNECTING before it runs.
+    public synchronized boolean onConnecting(String url) {
+        RelayState relayState = stateFor(url);
+        if (relayState.state == State.BACKOFF || relayState.state == State.OPEN) {
+            return false;
+        }
+        cancelPending(relayState);
+        relayState.state = State.CONNECTING;
+        return true;
+    }
+
+    public synchronized void onConnected(String url) {
+        RelayState relayState = stateFor(url);
+        relayState.state = State.CONNECTED;
+        relayState.nextAttemptAt = 0;
+        cancelPending(relayState);
+        relayState.pending = scheduler.schedule(() -> {
+            synchronized (ReconnectScheduler.this) {
+                if (relayState.state == State.CONNECTED) {
+                    relayState.failures = 0;
+                }
+            }
+        }, STABLE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void onDisconnected(String url, Runnable reconnect) {
+        RelayState relayState = stateFor(url);
+        if (relayState.state == State.DISCONNECTED || relayState.state == State.BACKOFF || relayState.state == State.OPEN) {
+            return;
+        }
+        cancelPending(relayState);
+        relayState.failures++;
+
+        long delay;
+        if (relayState.failures >= FAILURES_TO_OPEN) {
+            relayState.state = State.OPEN;
+            delay = OPEN_COOLDOWN_MS;
+        } else {
+            relayState.state = State.BACKOFF;
+            long cap = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << (relayState.failures - 1));
+            delay = ThreadLocalRandom.current().nextLong(cap + 1);
+        }
+        Log.d("Websocket", "RECONNECT URL:" + url + " __ " + relayState.state + " " + delay + "ms");
+        relayState.nextAttemptAt = System.currentTimeMillis() + delay;
+        relayState.pending = scheduler.schedule(() -> {
+            synchronized (ReconnectScheduler.this) {
+                if (relayState.state != State.BACKOFF && relayState.state != State.OPEN) {
+                    return;
+                }
+                relayState.pending = null;
+                relayState.state = State.CONNECTING;
+            }
+            reconnect.run();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void cancel(String url) {
+        RelayState relayState = stateFor(url);
+        cancelPending(relayState);
+        relayState.state = State.DISCONNECTED;
+        relayState.failures = 0;
+        relayState.nextAttemptAt = 0;
+    }
+
+    public synchronized List<RelayState> getStates() {
+        List<RelayState> snapshot = new ArrayList<>();
+        for (RelayState relayState : states.values()) {
+            RelayState copy = new RelayState(relayState.url);
+            copy.state = relayState.state;
+            copy.failures = relayState.failures;
+            copy.nextAttemptAt = relayState.nextAttemptAt;
+            snapshot.add(copy);
+        }
+        return snapshot;
+    }
+
+    private RelayState stateFor(String url) {
+        RelayState relayState = states.get(url);
+        if (relayState == null) {
+            relayState = new RelayState(url);
+            states.put(url, relayState);
+        }
+        return relayState;
+    }
+
+    private void cancelPending(RelayState relayState) {
+        if (relayState.pending != null) {
+            relayState.pending.cancel(false);
+            relayState.pending = null;
+        }
+    }
+}
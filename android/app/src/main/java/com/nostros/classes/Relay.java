@@ -5,26 +5,27 @@ import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
 import com.facebook.react.bridge.Callback;
-import com.facebook.react.bridge.ReactApplicationContext;
 import com.nostros.modules.DatabaseModule;
 
+import org.json.JSONException;
+
 import java.io.IOException;
-import java.util.ArrayList;
 
 public class Relay {
     private Websocket webSocket;
     public String url;
-    public int active;
-    public int globalFeed;
-    public int paid;
+    public volatile int active;
+    public volatile int globalFeed;
+    public volatile int paid;
     public int resilient;
+    public volatile int compression;
 
-    public Relay(String serverUrl, int isActive, int showGlobalFeed, int isResilient, Database database, ReactApplicationContext reactContext, ArrayList<String> events) throws IOException {
+    public Relay(String serverUrl, int isActive, int showGlobalFeed, int isResilient, Database database, BridgeEmitter emitter, EventIngest eventIngest, ConnectionManager connections, SubscriptionRegistry subscriptions) throws IOException {
         url = serverUrl;
         active = isActive;
         globalFeed = showGlobalFeed;
         resilient = isResilient;
-        webSocket = new Websocket(serverUrl, database, reactContext, events);
+        webSocket = new Websocket(serverUrl, database, emitter, eventIngest, connections, subscriptions);
     }
 
     public int active() {
@@ -43,10 +44,35 @@ public class Relay {
         this.paid = paid;
     }
 
+    public void setCompression(int compression) {
+        this.compression = compression;
+        webSocket.setCompression(compression > 0);
+    }
+
     public void send(String message) {
         webSocket.send(message);
     }
 
+    public void count(String subId, String filter, RelayCounts.Listener listener) {
+        webSocket.count(subId, filter, listener);
+    }
+
+    public void negentropy(String subId, String filter, Negentropy.Storage storage) {
+        webSocket.negentropy(subId, filter, storage);
+    }
+
+    public RelayMetrics getMetrics() {
+        return webSocket.getMetrics();
+    }
+
+    public boolean isParked() {
+        return webSocket.isParked();
+    }
+
+    public OutboundQueue getOutbound() {
+        return webSocket.getOutbound();
+    }
+
     public void disconnect() {
         webSocket.disconnect();
     }
@@ -62,7 +88,24 @@ public class Relay {
         values.put("active", active);
         values.put("global_feed", globalFeed);
         values.put("resilient", resilient);
+        values.put("compression", compression);
         values.put("deleted_at", 0);
+        values.put("stats", statsSummary());
         database.instance.replace("nostros_relays", null, values);
     }
+
+    public void saveStats(Database database) {
+        ContentValues values = new ContentValues();
+        values.put("stats", statsSummary());
+        database.instance.update("nostros_relays", values, "url = ?", new String[] {url});
+    }
+
+    private String statsSummary() {
+        try {
+            return getMetrics().toJson().toString();
+        } catch (JSONException e) {
+            Log.d("Relay", e.toString());
+            return null;
+        }
+    }
 }
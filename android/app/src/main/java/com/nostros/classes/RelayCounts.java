@@ -0,0 +1,135 @@
+package com.nostros.classes;
+
+import android.annotation.SuppressLint;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+// NIP-45 counts cached per filter in nostros_counts. Relays that answered COUNT are merged
+// by taking the highest count, since each relay only knows part of the network.
+public class RelayCounts {
+    private final Database database;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    public interface Listener {
+        void onCount(String relayUrl, long count, boolean approximate);
+        void onUnsupported(String relayUrl);
+    }
+
+    public interface Result {
+        void onResult(long count, boolean approximate, boolean cached, int relays, int fallbacks);
+    }
+
+    // Collects the answer of each relay asked, reporting once all did or the request was closed.
+    public class Request implements Listener {
+        private final String filterKey;
+        private final String filter;
+        private final Result result;
+        private int pending;
+        private long count = -1;
+        private boolean approximate;
+        private int answered;
+        private int unsupported;
+        private boolean done;
+
+        Request(String filterKey, String filter, Result result) {
+            this.filterKey = filterKey;
+            this.filter = filter;
+            this.result = result;
+        }
+
+        public synchronized void expect() {
+            pending++;
+        }
+
+        @Override
+        public synchronized void onCount(String relayUrl, long relayCount, boolean relayApproximate) {
+            if (relayCount > count) {
+                count = relayCount;
+                approximate = relayApproximate;
+            }
+            answered++;
+            if (--pending <= 0) {
+                finish();
+            }
+        }
+
+        @Override
+        public synchronized void onUnsupported(String relayUrl) {
+            unsupported++;
+            fallbacks.incrementAndGet();
+            if (--pending <= 0) {
+                finish();
+            }
+        }
+
+        public synchronized void finish() {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (answered > 0) {
+                store(filterKey, filter, count, approximate, answered);
+            }
+            result.onResult(Math.max(0, count), approximate, false, answered, unsupported);
+        }
+    }
+
+    public RelayCounts(Database databaseEntity) {
+        database = databaseEntity;
+    }
+
+    // Returns null after answering from a cache entry younger than maxAgeSeconds.
+    public Request request(String filter, int maxAgeSeconds, Result result) throws JSONException {
+        requests.incrementAndGet();
+        String filterKey = UUID.nameUUIDFromBytes(SyncCursors.canonical(new JSONObject(filter), true).getBytes()).toString();
+        long since = System.currentTimeMillis() / 1000L - maxAgeSeconds;
+        String query = "SELECT count, approximate, relays FROM nostros_counts WHERE filter_key = ? AND updated_at >= ?";
+        @SuppressLint("Recycle") Cursor cursor = database.instance.rawQuery(query, new String[] {filterKey, String.valueOf(since)});
+        try {
+            if (cursor.moveToFirst()) {
+                cacheHits.incrementAndGet();
+                result.onResult(cursor.getLong(0), cursor.getInt(1) > 0, true, cursor.getInt(2), 0);
+                return null;
+            }
+        } finally {
+            cursor.close();
+        }
+        return new Request(filterKey, filter, result);
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    private void store(String filterKey, String filter, long count, boolean approximate, int relays) {
+        ContentValues values = new ContentValues();
+        values.put("filter_key", filterKey);
+        values.put("filter", filter);
+        values.put("count", count);
+        values.put("approximate", approximate ? 1 : 0);
+        values.put("relays", relays);
+        values.put("updated_at", System.currentTimeMillis() / 1000L);
+        try {
+            database.instance.replace("nostros_counts", null, values);
+        } catch (RuntimeException e) {
+            Log.d("RelayCounts", e.toString());
+        }
+    }
+}
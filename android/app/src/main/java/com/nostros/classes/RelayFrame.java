@@ -0,0 +1,275 @@
+package com.nostros.classes;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Single pass tokenizer over a raw relay message. It only records where each
+// element starts and ends; strings are decoded on demand, so duplicates cost
+// one scan plus the decoding of their id.
+public class RelayFrame {
+    private static final String[] EVENT_KEYS = {"id", "pubkey", "created_at", "kind", "tags", "content", "sig"};
+    public static final int ID = 0;
+    public static final int PUBKEY = 1;
+    public static final int CREATED_AT = 2;
+    public static final int KIND = 3;
+    public static final int TAGS = 4;
+    public static final int CONTENT = 5;
+    public static final int SIG = 6;
+
+    private final String raw;
+    private final List<int[]> elements = new ArrayList<>(4);
+    private final int[][] eventFields = new int[EVENT_KEYS.length][];
+    private int pos;
+    private boolean hasEvent;
+
+    private RelayFrame(String message) {
+        raw = message;
+    }
+
+    public static RelayFrame parse(String message) throws JSONException {
+        RelayFrame frame = new RelayFrame(message);
+        frame.parseArray();
+        return frame;
+    }
+
+    public String getRaw() {
+        return raw;
+    }
+
+    public int size() {
+        return elements.size();
+    }
+
+    public String getType() throws JSONException {
+        return getString(0);
+    }
+
+    // Decoded value for string elements, the literal text for anything else.
+    public String getString(int index) throws JSONException {
+        if (index >= elements.size()) {
+            throw new JSONException("Relay frame has no element " + index);
+        }
+        int[] span = elements.get(index);
+        return raw.charAt(span[0]) == '"' ? decodeString(span) : raw.substring(span[0], span[1]);
+    }
+
+    public String optString(int index) {
+        try {
+            return index < elements.size() ? getString(index) : null;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    public int getLength(int index) {
+        int[] span = elements.get(index);
+        return span[1] - span[0];
+    }
+
+    public boolean hasEvent() {
+        return hasEvent;
+    }
+
+    public String getEventString(int field) throws JSONException {
+        int[] span = eventFields[field];
+        if (span == null || raw.charAt(span[0]) != '"') {
+            throw new JSONException("Event has no string " + EVENT_KEYS[field]);
+        }
+        return decodeString(span);
+    }
+
+    // Untouched JSON text of the field, used to store tags without re-serializing them.
+    public String getEventRaw(int field) throws JSONException {
+        int[] span = eventFields[field];
+        if (span == null) {
+            throw new JSONException("Event has no " + EVENT_KEYS[field]);
+        }
+        return raw.substring(span[0], span[1]);
+    }
+
+    public boolean hasEventField(int field) {
+        return eventFields[field] != null;
+    }
+
+    private void parseArray() throws JSONException {
+        skipWhitespace();
+        expect('[');
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            int start = pos;
+            if (elements.size() == 2 && peek() == '{') {
+                parseEvent();
+                hasEvent = true;
+            } else {
+                skipValue();
+            }
+            elements.add(new int[] {start, pos});
+            skipWhitespace();
+            char next = next();
+            if (next == ']') {
+                return;
+            } else if (next != ',') {
+                throw error("Expected ',' or ']'");
+            }
+        }
+    }
+
+    private void parseEvent() throws JSONException {
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            int keyStart = pos + 1;
+            skipString();
+            int keyLength = pos - 1 - keyStart;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            int valueStart = pos;
+            skipValue();
+            for (int i = 0; i < EVENT_KEYS.length; ++i) {
+                String key = EVENT_KEYS[i];
+                if (key.length() == keyLength && raw.regionMatches(keyStart, key, 0, keyLength)) {
+                    eventFields[i] = new int[] {valueStart, pos};
+                    break;
+                }
+            }
+            skipWhitespace();
+            char next = next();
+            if (next == '}') {
+                return;
+            } else if (next != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private void skipValue() throws JSONException {
+        char c = peek();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = peek();
+                if (c == '"') {
+                    skipString();
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+                pos++;
+            } while (depth > 0);
+        } else {
+            int start = pos;
+            while (pos < raw.length()) {
+                c = raw.charAt(pos);
+                if (c == ',' || c == ']' || c == '}' || Character.isWhitespace(c)) {
+                    break;
+                }
+                pos++;
+            }
+            if (pos == start) {
+                throw error("Expected a value");
+            }
+        }
+    }
+
+    private void skipString() throws JSONException {
+        expect('"');
+        while (true) {
+            char c = next();
+            if (c == '\\') {
+                pos++;
+            } else if (c == '"') {
+                return;
+            }
+        }
+    }
+
+    private String decodeString(int[] span) throws JSONException {
+        int start = span[0] + 1;
+        int end = span[1] - 1;
+        int escape = start;
+        while (escape < end && raw.charAt(escape) != '\\') {
+            escape++;
+        }
+        if (escape == end) {
+            return raw.substring(start, end);
+        }
+        StringBuilder builder = new StringBuilder(end - start);
+        builder.append(raw, start, escape);
+        int i = escape;
+        while (i < end) {
+            char c = raw.charAt(i++);
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            char escaped = raw.charAt(i++);
+            switch (escaped) {
+                case 'b': builder.append('\b'); break;
+                case 'f': builder.append('\f'); break;
+                case 'n': builder.append('\n'); break;
+                case 'r': builder.append('\r'); break;
+                case 't': builder.append('\t'); break;
+                case 'u':
+                    if (i + 4 > end) {
+                        throw new JSONException("Unterminated escape sequence");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(raw.substring(i, i + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw new JSONException("Invalid escape sequence");
+                    }
+                    i += 4;
+                    break;
+                default: builder.append(escaped);
+            }
+        }
+        return builder.toString();
+    }
+
+    private void skipWhitespace() {
+        while (pos < raw.length() && Character.isWhitespace(raw.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private char peek() throws JSONException {
+        if (pos >= raw.length()) {
+            throw error("Unexpected end of frame");
+        }
+        return raw.charAt(pos);
+    }
+
+    private char next() throws JSONException {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    private void expect(char expected) throws JSONException {
+        if (next() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+    }
+
+    private JSONException error(String message) {
+        return new JSONException(message + " at " + pos);
+    }
+}
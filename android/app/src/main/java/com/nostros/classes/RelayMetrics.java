@@ -0,0 +1,230 @@
+package com.nostros.classes;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Per relay telemetry. Totals survive restarts through the summary stored in
+// nostros_relays.stats; events/sec and bytes/sec cover the last WINDOW_SECONDS.
+public class RelayMetrics {
+    private static final int WINDOW_SECONDS = 60;
+
+    private final long[] windowSeconds = new long[WINDOW_SECONDS];
+    private final long[] windowEvents = new long[WINDOW_SECONDS];
+    private final long[] windowBytes = new long[WINDOW_SECONDS];
+
+    private long connects;
+    private long totalConnectLatencyMs;
+    private long lastConnectLatencyMs;
+    private long pongs;
+    private long totalRttMs;
+    private long lastRttMs;
+    private long events;
+    private long duplicates;
+    private long bytes;
+    private long wireBytes;
+    private boolean compressed;
+    private long invalid;
+    private long unmatched;
+    private long negentropySessions;
+    private long negentropyFallbacks;
+    private long negentropyNeed;
+    private long negentropyHave;
+    private long firstEoses;
+    private long totalFirstEoseMs;
+    private long lastFirstEoseMs;
+    private long uptimeMs;
+
+    private long connectingAt;
+    private long connectedAt;
+    private long requestedAt;
+    private boolean firstEoseSeen;
+
+    public synchronized void onConnecting() {
+        connectingAt = System.currentTimeMillis();
+    }
+
+    public synchronized void onConnected() {
+        long now = System.currentTimeMillis();
+        if (connectingAt > 0) {
+            lastConnectLatencyMs = now - connectingAt;
+            totalConnectLatencyMs += lastConnectLatencyMs;
+            connects++;
+            connectingAt = 0;
+        }
+        connectedAt = now;
+        requestedAt = 0;
+        firstEoseSeen = false;
+    }
+
+    public synchronized void onDisconnected() {
+        if (connectedAt > 0) {
+            uptimeMs += System.currentTimeMillis() - connectedAt;
+            connectedAt = 0;
+        }
+        connectingAt = 0;
+    }
+
+    public synchronized void onRequest() {
+        if (requestedAt == 0) {
+            requestedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized void onEose() {
+        if (!firstEoseSeen && requestedAt > 0) {
+            firstEoseSeen = true;
+            lastFirstEoseMs = System.currentTimeMillis() - requestedAt;
+            totalFirstEoseMs += lastFirstEoseMs;
+            firstEoses++;
+        }
+    }
+
+    public synchronized void onPong(long rttMs) {
+        lastRttMs = rttMs;
+        totalRttMs += rttMs;
+        pongs++;
+    }
+
+    public synchronized void onFrame(int frameBytes) {
+        bytes += frameBytes;
+        windowBytes[slot()] += frameBytes;
+    }
+
+    // Frame as read from the socket, before permessage-deflate inflates it. Server frames are unmasked.
+    public synchronized void onWireFrame(int payloadLength) {
+        int header = payloadLength > 65535 ? 10 : payloadLength > 125 ? 4 : 2;
+        wireBytes += payloadLength + header;
+    }
+
+    public synchronized void setCompressed(boolean agreed) {
+        compressed = agreed;
+    }
+
+    public synchronized void onEvent(boolean duplicate) {
+        events++;
+        if (duplicate) {
+            duplicates++;
+        }
+        windowEvents[slot()]++;
+    }
+
+    public synchronized void onInvalid() {
+        invalid++;
+    }
+
+    public synchronized void onUnmatched() {
+        unmatched++;
+    }
+
+    public synchronized void onNegentropy(int needIds, int haveIds) {
+        negentropySessions++;
+        negentropyNeed += needIds;
+        negentropyHave += haveIds;
+    }
+
+    public synchronized void onNegentropyFallback() {
+        negentropyFallbacks++;
+    }
+
+    public synchronized double getEventsPerSecond() {
+        return windowSum(windowEvents) / (double) WINDOW_SECONDS;
+    }
+
+    public synchronized double getBytesPerSecond() {
+        return windowSum(windowBytes) / (double) WINDOW_SECONDS;
+    }
+
+    public synchronized double getDuplicateRatio() {
+        return events == 0 ? 0 : (double) duplicates / events;
+    }
+
+    public synchronized JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("connects", connects);
+        json.put("connectLatencyMs", lastConnectLatencyMs);
+        json.put("averageConnectLatencyMs", average(totalConnectLatencyMs, connects));
+        json.put("pongs", pongs);
+        json.put("rttMs", lastRttMs);
+        json.put("averageRttMs", average(totalRttMs, pongs));
+        json.put("events", events);
+        json.put("duplicates", duplicates);
+        json.put("duplicateRatio", getDuplicateRatio());
+        json.put("bytes", bytes);
+        json.put("wireBytes", wireBytes);
+        json.put("compressed", compressed ? 1 : 0);
+        json.put("invalid", invalid);
+        json.put("unmatched", unmatched);
+        json.put("negentropySessions", negentropySessions);
+        json.put("negentropyFallbacks", negentropyFallbacks);
+        json.put("negentropyNeed", negentropyNeed);
+        json.put("negentropyHave", negentropyHave);
+        json.put("firstEoseMs", lastFirstEoseMs);
+        json.put("averageFirstEoseMs", average(totalFirstEoseMs, firstEoses));
+        json.put("firstEoses", firstEoses);
+        json.put("uptimeMs", uptimeMs + (connectedAt > 0 ? System.currentTimeMillis() - connectedAt : 0));
+        json.put("eventsPerSecond", getEventsPerSecond());
+        json.put("bytesPerSecond", getBytesPerSecond());
+        return json;
+    }
+
+    // Resumes the totals of a summary previously stored in nostros_relays.stats.
+    public synchronized void restore(String summary) {
+        if (summary == null || summary.isEmpty()) {
+            return;
+        }
+        try {
+            JSONObject json = new JSONObject(summary);
+            connects = json.optLong("connects");
+            totalConnectLatencyMs = Math.round(json.optDouble("averageConnectLatencyMs", 0) * connects);
+            lastConnectLatencyMs = json.optLong("connectLatencyMs");
+            pongs = json.optLong("pongs");
+            totalRttMs = Math.round(json.optDouble("averageRttMs", 0) * pongs);
+            lastRttMs = json.optLong("rttMs");
+            events = json.optLong("events");
+            duplicates = json.optLong("duplicates");
+            bytes = json.optLong("bytes");
+            wireBytes = json.optLong("wireBytes");
+            invalid = json.optLong("invalid");
+            unmatched = json.optLong("unmatched");
+            negentropySessions = json.optLong("negentropySessions");
+            negentropyFallbacks = json.optLong("negentropyFallbacks");
+            negentropyNeed = json.optLong("negentropyNeed");
+            negentropyHave = json.optLong("negentropyHave");
+            firstEoses = json.optLong("firstEoses");
+            totalFirstEoseMs = Math.round(json.optDouble("averageFirstEoseMs", 0) * firstEoses);
+            lastFirstEoseMs = json.optLong("firstEoseMs");
+            uptimeMs = json.optLong("uptimeMs");
+        } catch (JSONException e) {
+            Log.d("RelayMetrics", e.toString());
+        }
+    }
+
+    // Index of the current second's slot, recycled if it still holds an older second.
+    private int slot() {
+        long second = System.currentTimeMillis() / 1000L;
+        int slot = (int) (second % WINDOW_SECONDS);
+        if (windowSeconds[slot] != second) {
+            windowSeconds[slot] = second;
+            windowEvents[slot] = 0;
+            windowBytes[slot] = 0;
+        }
+        return slot;
+    }
+
+    private long windowSum(long[] values) {
+        long second = System.currentTimeMillis() / 1000L;
+        long sum = 0;
+        for (int i = 0; i < WINDOW_SECONDS; ++i) {
+            if (second - windowSeconds[i] < WINDOW_SECONDS) {
+                sum += values[i];
+            }
+        }
+        return sum;
+    }
+
+    private static double average(long total, long count) {
+        return count == 0 ? 0 : (double) total / count;
+    }
+}
@@ -0,0 +1,37 @@
+package com.nostros.classes;
+
+import android.os.SystemClock;
+
+// Cold start milestones in elapsedRealtime, measured from Application.onCreate.
+public class StartupMetrics {
+    private static volatile long applicationStart;
+    private static volatile long firstFrame;
+    private static volatile long databaseReady;
+
+    public static void markApplicationStart() {
+        applicationStart = SystemClock.elapsedRealtime();
+    }
+
+    public static void markFirstFrame() {
+        if (firstFrame == 0) {
+            firstFrame = SystemClock.elapsedRealtime();
+        }
+    }
+
+    public static void markDatabaseReady() {
+        databaseReady = SystemClock.elapsedRealtime();
+    }
+
+    // -1 until the milestone is reached
+    public static long getFirstFrameMs() {
+        return since(firstFrame);
+    }
+
+    public static long getDatabaseReadyMs() {
+        return since(databaseReady);
+    }
+
+    private static long since(long milestone) {
+        return milestone == 0 || applicationStart == 0 ? -1 : milestone - applicationStart;
+    }
+}
@@ -0,0 +1,246 @@
+package com.nostros.classes;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Open REQs per relay, recorded from outgoing frames so they can be re-issued after a reconnect.
+public class SubscriptionRegistry {
+    private final Map<String, Map<String, Subscription>> relays = new HashMap<>();
+    private final SyncCursors cursors;
+    private final FilterMatcher matcher = new FilterMatcher();
+
+    public static class Subscription {
+        public final String subId;
+        public final String relayUrl;
+        public final String request;
+        public final String filterKey;
+        public boolean eose;
+        public boolean bounded;
+        public long events;
+        public long bytes;
+        // Newest event of the subscription committed by EventIngest, and events still on their way there.
+        public long committedAt;
+        public int pending;
+        // An event failed to save and will be fetched again, so this backfill must not advance the cursor.
+        public boolean held;
+        public boolean cursorDue;
+
+        Subscription(String subId, String relayUrl, String request, String filterKey) {
+            this.subId = subId;
+            this.relayUrl = relayUrl;
+            this.request = request;
+            this.filterKey = filterKey;
+        }
+    }
+
+    public SubscriptionRegistry(SyncCursors syncCursors) {
+        cursors = syncCursors;
+    }
+
+    public SyncCursors getCursors() {
+        return cursors;
+    }
+
+    public FilterMatcher getMatcher() {
+        return matcher;
+    }
+
+    public List<String> match(String relayUrl, Event event) {
+        return matcher.match(relayUrl, event);
+    }
+
+    // A REQ with an existing id replaces the previous filters, as it does on the relay.
+    // Returns the request bounded by the relay's cursor for these filters when one is stored,
+    // including one saved before a restart.
+    public String open(String relayUrl, String subId, String request) {
+        String filterKey = null;
+        try {
+            filterKey = cursors.filterKey(new JSONArray(request));
+        } catch (JSONException e) {
+            Log.d("Websocket", "REQ INVALID URL:" + relayUrl + " __ " + request);
+        }
+        Subscription subscription = new Subscription(subId, relayUrl, request, filterKey);
+        String bounded = bound(subscription);
+        synchronized (this) {
+            subscription.bounded = bounded != null;
+            subscriptionsFor(relayUrl).put(subId, subscription);
+        }
+        matcher.register(relayUrl, subId, request);
+        return bounded != null ? bounded : request;
+    }
+
+    public synchronized void close(String relayUrl, String subId) {
+        matcher.unregister(relayUrl, subId);
+        Map<String, Subscription> subscriptions = relays.get(relayUrl);
+        if (subscriptions != null) {
+            subscriptions.remove(subId);
+        }
+    }
+
+    public synchronized void clear(String relayUrl) {
+        matcher.clear(relayUrl);
+        relays.remove(relayUrl);
+    }
+
+    public synchronized Subscription get(String relayUrl, String subId) {
+        Map<String, Subscription> subscriptions = relays.get(relayUrl);
+        return subscriptions == null ? null : subscriptions.get(subId);
+    }
+
+    public synchronized void onEvent(String relayUrl, String subId, int bytes) {
+        Subscription subscription = get(relayUrl, subId);
+        if (subscription != null && !subscription.eose) {
+            subscription.events++;
+            subscription.bytes += bytes;
+        }
+    }
+
+    // The event was handed to EventIngest for the subscriptions it matched.
+    public synchronized void onSubmitted(String relayUrl, List<String> subIds) {
+        for (String subId : subIds) {
+            Subscription subscription = get(relayUrl, subId);
+            if (subscription != null) {
+                subscription.pending++;
+            }
+        }
+    }
+
+    public void onCommitted(String relayUrl, Event event) {
+        List<Subscription> due = new ArrayList<>();
+        synchronized (this) {
+            for (String subId : event.getSubscriptions()) {
+                Subscription subscription = get(relayUrl, subId);
+                if (subscription != null) {
+                    subscription.pending = Math.max(0, subscription.pending - 1);
+                    subscription.committedAt = Math.max(subscription.committedAt, event.getCreatedAt());
+                    collectDue(subscription, due);
+                }
+            }
+        }
+        advance(due);
+    }
+
+    // retry is set when the event was lost rather than refused, so the relay has to send it again.
+    public void onDropped(String relayUrl, Event event, boolean retry) {
+        List<Subscription> due = new ArrayList<>();
+        synchronized (this) {
+            for (String subId : event.getSubscriptions()) {
+                Subscription subscription = get(relayUrl, subId);
+                if (subscription != null) {
+                    subscription.pending = Math.max(0, subscription.pending - 1);
+                    subscription.held |= retry;
+                    collectDue(subscription, due);
+                }
+            }
+        }
+        advance(due);
+    }
+
+    // Returns true once every relay holding this subscription has sent EOSE.
+    // The relay's cursor for the subscription filters advances to the newest committed event
+    // once everything received before EOSE has left EventIngest.
+    public boolean onEose(String relayUrl, String subId) {
+        List<Subscription> due = new ArrayList<>();
+        boolean complete = true;
+        synchronized (this) {
+            Subscription subscription = get(relayUrl, subId);
+            if (subscription == null) {
+                return false;
+            }
+            subscription.eose = true;
+            subscription.cursorDue = true;
+            collectDue(subscription, due);
+            for (Map<String, Subscription> subscriptions : relays.values()) {
+                Subscription other = subscriptions.get(subId);
+                if (other != null && !other.eose) {
+                    complete = false;
+                    break;
+                }
+            }
+        }
+        advance(due);
+        return complete;
+    }
+
+    // Frames for the live subscriptions to re-issue on a fresh connection; their backfill starts over
+    // from the relay's cursor.
+    public List<String> onReconnected(String relayUrl) {
+        List<Subscription> live = new ArrayList<>();
+        synchronized (this) {
+            Map<String, Subscription> subscriptions = relays.get(relayUrl);
+            if (subscriptions != null) {
+                live.addAll(subscriptions.values());
+            }
+        }
+        // Cursors are loaded outside the lock, the registry is consulted for every incoming event
+        List<String> bounded = new ArrayList<>();
+        for (Subscription subscription : live) {
+            bounded.add(bound(subscription));
+        }
+        List<String> requests = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < live.size(); ++i) {
+                Subscription subscription = live.get(i);
+                subscription.eose = false;
+                subscription.cursorDue = false;
+                subscription.events = 0;
+                subscription.bytes = 0;
+                subscription.bounded = bounded.get(i) != null;
+                requests.add(subscription.bounded ? bounded.get(i) : subscription.request);
+            }
+        }
+        return requests;
+    }
+
+    public synchronized int size(String relayUrl) {
+        Map<String, Subscription> subscriptions = relays.get(relayUrl);
+        return subscriptions == null ? 0 : subscriptions.size();
+    }
+
+    private void collectDue(Subscription subscription, List<Subscription> due) {
+        if (!subscription.cursorDue || subscription.pending > 0) {
+            return;
+        }
+        subscription.cursorDue = false;
+        if (subscription.held) {
+            subscription.held = false;
+        } else if (subscription.filterKey != null) {
+            due.add(subscription);
+        }
+    }
+
+    private void advance(List<Subscription> due) {
+        for (Subscription subscription : due) {
+            cursors.save(subscription.relayUrl, subscription.filterKey, subscription.committedAt, subscription.events, subscription.bytes, subscription.bounded);
+        }
+    }
+
+    // The request raised to the stored cursor, or null when there is none.
+    private String bound(Subscription subscription) {
+        String bounded = null;
+        if (subscription.filterKey != null) {
+            try {
+                bounded = cursors.bound(subscription.relayUrl, subscription.filterKey, new JSONArray(subscription.request));
+            } catch (JSONException e) {
+                Log.d("Websocket", "REQ INVALID URL:" + subscription.relayUrl + " __ " + subscription.request);
+            }
+        }
+        return bounded;
+    }
+
+    private Map<String, Subscription> subscriptionsFor(String relayUrl) {
+        Map<String, Subscription> subscriptions = relays.get(relayUrl);
+        if (subscriptions == null) {
+            subscriptions = new HashMap<>();
+            relays.put(relayUrl, subscriptions);
+        }
+        return subscriptions;
+    }
+}
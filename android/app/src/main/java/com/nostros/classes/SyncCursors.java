@@ -0,0 +1,187 @@
+package com.nostros.classes;
+
+import android.annotation.SuppressLint;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+// High-water created_at per relay and filter set, advanced to the newest committed event of a
+// backfill and used to bound replayed REQs with `since` so relays only resend what we have not stored yet.
+public class SyncCursors {
+    private static final long DEFAULT_OVERLAP_SECONDS = 60;
+
+    private final Database database;
+    private final Map<String, long[]> cache = new HashMap<>();
+    private volatile long overlapSeconds = DEFAULT_OVERLAP_SECONDS;
+    private final AtomicLong boundedRequests = new AtomicLong();
+    private final AtomicLong savedEvents = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+
+    // Cached row: created_at, events and bytes of the last unbounded backfill.
+    private static final int CREATED_AT = 0;
+    private static final int FULL_EVENTS = 1;
+    private static final int FULL_BYTES = 2;
+
+    public SyncCursors(Database databaseEntity) {
+        database = databaseEntity;
+    }
+
+    public void setOverlapSeconds(long seconds) {
+        overlapSeconds = Math.max(0, seconds);
+    }
+
+    // Stable key for the filters of a REQ ignoring since/until/limit, or null when the
+    // request is a historic page or an id lookup that a cursor must not bound.
+    public String filterKey(JSONArray request) throws JSONException {
+        List<String> filters = new ArrayList<>();
+        for (int i = 2; i < request.length(); ++i) {
+            JSONObject filter = request.getJSONObject(i);
+            if (filter.has("until") || filter.has("ids")) {
+                return null;
+            }
+            filters.add(canonical(filter, false));
+        }
+        if (filters.isEmpty()) {
+            return null;
+        }
+        Collections.sort(filters);
+        return UUID.nameUUIDFromBytes(filters.toString().getBytes()).toString();
+    }
+
+    // Returns the request with every filter's since raised to the cursor minus the overlap.
+    public String bound(String relayUrl, String filterKey, JSONArray request) throws JSONException {
+        long[] cursor = load(relayUrl, filterKey);
+        if (cursor == null) {
+            return null;
+        }
+        long since = cursor[CREATED_AT] - overlapSeconds;
+        JSONArray bounded = new JSONArray();
+        bounded.put(request.get(0));
+        bounded.put(request.get(1));
+        for (int i = 2; i < request.length(); ++i) {
+            JSONObject filter = new JSONObject(request.getJSONObject(i).toString());
+            filter.put("since", Math.max(since, filter.optLong("since", 0)));
+            bounded.put(filter);
+        }
+        boundedRequests.incrementAndGet();
+        return bounded.toString();
+    }
+
+    public void save(String relayUrl, String filterKey, long createdAt, long events, long bytes, boolean bounded) {
+        long[] cursor = load(relayUrl, filterKey);
+        long fullEvents = events;
+        long fullBytes = bytes;
+        if (bounded && cursor != null) {
+            fullEvents = cursor[FULL_EVENTS];
+            fullBytes = cursor[FULL_BYTES];
+            savedEvents.addAndGet(Math.max(0, fullEvents - events));
+            savedBytes.addAndGet(Math.max(0, fullBytes - bytes));
+        }
+        if (cursor != null && createdAt < cursor[CREATED_AT]) {
+            createdAt = cursor[CREATED_AT];
+        }
+        if (createdAt <= 0) {
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put("relay_url", relayUrl);
+        values.put("filter_key", filterKey);
+        values.put("created_at", createdAt);
+        values.put("events", fullEvents);
+        values.put("bytes", fullBytes);
+        values.put("updated_at", System.currentTimeMillis() / 1000L);
+        try {
+            database.instance.replace("nostros_relay_cursors", null, values);
+        } catch (RuntimeException e) {
+            Log.d("SyncCursors", e.toString());
+            return;
+        }
+        synchronized (cache) {
+            cache.put(relayUrl + " " + filterKey, new long[] {createdAt, fullEvents, fullBytes});
+        }
+    }
+
+    // Forgets the cached cursors, e.g. before the tables are emptied on logout.
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public long getBoundedRequests() {
+        return boundedRequests.get();
+    }
+
+    public long getSavedEvents() {
+        return savedEvents.get();
+    }
+
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    // Package-private so tests can stand in for the stored rows.
+    long[] load(String relayUrl, String filterKey) {
+        String key = relayUrl + " " + filterKey;
+        synchronized (cache) {
+            if (cache.containsKey(key)) {
+                return cache.get(key);
+            }
+        }
+        long[] cursor = null;
+        String query = "SELECT created_at, events, bytes FROM nostros_relay_cursors WHERE relay_url = ? AND filter_key = ?";
+        @SuppressLint("Recycle") Cursor row = database.instance.rawQuery(query, new String[] {relayUrl, filterKey});
+        if (row.moveToFirst()) {
+            cursor = new long[] {row.getLong(0), row.getLong(1), row.getLong(2)};
+        }
+        row.close();
+        synchronized (cache) {
+            cache.put(key, cursor);
+        }
+        return cursor;
+    }
+
+    // Sorted keys and values; since/until/limit are left out unless window is set.
+    static String canonical(JSONObject filter, boolean window) throws JSONException {
+        List<String> keys = new ArrayList<>();
+        Iterator<String> iterator = filter.keys();
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+            if (window || (!key.equals("since") && !key.equals("until") && !key.equals("limit"))) {
+                keys.add(key);
+            }
+        }
+        Collections.sort(keys);
+        StringBuilder builder = new StringBuilder();
+        for (String key : keys) {
+            builder.append(key).append('=');
+            JSONArray values = filter.optJSONArray(key);
+            if (values != null) {
+                List<String> items = new ArrayList<>();
+                for (int i = 0; i < values.length(); ++i) {
+                    items.add(values.get(i).toString());
+                }
+                Collections.sort(items);
+                builder.append(items);
+            } else {
+                builder.append(filter.get(key));
+            }
+            builder.append(';');
+        }
+        return builder.toString();
+    }
+}
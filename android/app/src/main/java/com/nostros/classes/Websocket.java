@@ -3,137 +3,625 @@ package com.nostros.classes;
 import android.util.Log;
 
 import com.facebook.react.bridge.Arguments;
-import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.WritableMap;
-import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.neovisionaries.ws.client.WebSocket;
 import com.neovisionaries.ws.client.WebSocketAdapter;
-import com.neovisionaries.ws.client.WebSocketFactory;
+import com.neovisionaries.ws.client.WebSocketError;
+import com.neovisionaries.ws.client.WebSocketException;
+import com.neovisionaries.ws.client.WebSocketExtension;
 import com.neovisionaries.ws.client.WebSocketFrame;
+import com.neovisionaries.ws.client.WebSocketState;
 import com.nostros.modules.DatabaseModule;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
 
-public class Websocket {
-    private WebSocket webSocket;
+public class Websocket implements EventIngest.Listener, ConnectionManager.KeepaliveClient {
+    private volatile WebSocket webSocket;
     private Database database;
     private String url;
     private String pubKey;
-    private ReactApplicationContext context;
-    private ArrayList<String> createdEvents;
+    private BridgeEmitter emitter;
+    private EventIngest eventIngest;
+    private ConnectionManager connections;
+    private ReconnectScheduler reconnectScheduler;
+    private SubscriptionRegistry subscriptions;
+    private final OutboundQueue outbound = new OutboundQueue();
+    private final RelayMetrics metrics = new RelayMetrics();
+    private volatile boolean compression;
+    private volatile boolean compressionDeclined;
+    private volatile boolean parked;
+    private volatile long lastActivityAt;
+    private final Map<String, NegentropySession> negentropySessions = new HashMap<>();
+    private volatile boolean negentropyUnsupported;
 
-    public Websocket(String serverUrl, Database databaseEntity, ReactApplicationContext reactContext, ArrayList<String> events) {
+    private final Map<String, CountSession> countSessions = new HashMap<>();
+    private final Set<String> closeOnEose = Collections.synchronizedSet(new HashSet<String>());
+    private volatile boolean countUnsupported;
+
+    private static final long NEGENTROPY_TIMEOUT_MS = 15 * 1000;
+    private static final long COUNT_TIMEOUT_MS = 8 * 1000;
+    private static final int IDS_PER_FILTER = 500;
+
+    private static class CountSession {
+        final String filter;
+        final RelayCounts.Listener listener;
+        ScheduledFuture<?> timeout;
+
+        CountSession(String filter, RelayCounts.Listener listener) {
+            this.filter = filter;
+            this.listener = listener;
+        }
+    }
+
+    private static class NegentropySession {
+        final String subId;
+        final String filter;
+        final Negentropy negentropy;
+        final List<String> needIds = new ArrayList<>();
+        int haveIds;
+        boolean answered;
+        ScheduledFuture<?> timeout;
+
+        NegentropySession(String subId, String filter, Negentropy negentropy) {
+            this.subId = subId;
+            this.filter = filter;
+            this.negentropy = negentropy;
+        }
+    }
+
+    public Websocket(String serverUrl, Database databaseEntity, BridgeEmitter bridgeEmitter, EventIngest ingest, ConnectionManager connectionManager, SubscriptionRegistry subscriptionRegistry) {
         database = databaseEntity;
         url = serverUrl;
-        context = reactContext;
-        createdEvents = events;
+        emitter = bridgeEmitter;
+        eventIngest = ingest;
+        connections = connectionManager;
+        reconnectScheduler = connectionManager.getReconnectScheduler();
+        subscriptions = subscriptionRegistry;
     }
 
+    private final WebSocketAdapter listener = new WebSocketAdapter() {
+        @Override
+        public void onTextMessage(WebSocket websocket, String message) throws Exception {
+            lastActivityAt = System.currentTimeMillis();
+            metrics.onFrame(message.length());
+            RelayFrame frame = RelayFrame.parse(message);
+            String messageType = frame.getType();
+            if (messageType.equals("EVENT")) {
+                if (!frame.hasEvent()) {
+                    return;
+                }
+                // Parsed before the id is marked seen, so a malformed copy cannot hide a valid one
+                Event event = new Event(frame);
+                String id = event.getId();
+                subscriptions.onEvent(url, frame.getString(1), message.length());
+                boolean duplicate = !eventIngest.markSeen(id);
+                metrics.onEvent(duplicate);
+                if (!duplicate) {
+                    List<String> subIds = subscriptions.match(url, event);
+                    if (subIds.isEmpty()) {
+                        Log.d("Websocket", "RECEIVE URL:" + url + " __UNMATCHED__ " + id);
+                        eventIngest.forget(id);
+                        metrics.onUnmatched();
+                        return;
+                    }
+                    Log.d("Websocket", "RECEIVE URL:" + url + " __NEW__ " + message);
+                    event.setSubscriptions(subIds);
+                    subscriptions.onSubmitted(url, subIds);
+                    eventIngest.submit(event, pubKey, url, Websocket.this);
+                } else {
+                    Log.d("Websocket", "RECEIVE URL:" + url + " __DUP__ " + id);
+                }
+            } else if (messageType.equals("OK")) {
+                Log.d("Websocket", "RECEIVE OK:" + url + message);
+                emitter.confirmation(frame.getString(1));
+            } else if (messageType.equals("EOSE")) {
+                String subId = frame.getString(1);
+                Log.d("Websocket", "RECEIVE EOSE:" + url + " __ " + subId);
+                metrics.onEose();
+                emitter.eose(subId, url, subscriptions.onEose(url, subId));
+                if (closeOnEose.remove(subId)) {
+                    send(new JSONArray().put("CLOSE").put(subId).toString());
+                }
+            } else if (messageType.equals("CLOSED")) {
+                Log.d("Websocket", "RECEIVE CLOSED:" + url + message);
+                if (!countFailed(frame.getString(1), true)) {
+                    subscriptions.close(url, frame.getString(1));
+                }
+            } else if (messageType.equals("COUNT")) {
+                onCountMessage(frame.getString(1), frame.getString(2));
+            } else if (messageType.equals("NEG-MSG")) {
+                onNegentropyMessage(frame.getString(1), frame.getString(2));
+            } else if (messageType.equals("NEG-ERR")) {
+                Log.d("Websocket", "RECEIVE NEG-ERR:" + url + message);
+                negentropyFailed(frame.getString(1), false);
+            } else if (messageType.equals("NOTICE")) {
+                Log.d("Websocket", "RECEIVE NOTICE:" + url + message);
+                String notice = frame.optString(1);
+                if (notice != null && notice.contains("NEG-")) {
+                    negentropyUnsupported();
+                }
+                if (notice != null && notice.contains("COUNT")) {
+                    List<String> pending;
+                    synchronized (countSessions) {
+                        pending = new ArrayList<>(countSessions.keySet());
+                    }
+                    for (String subId : pending) {
+                        countFailed(subId, true);
+                    }
+                }
+            } else if (messageType.equals("AUTH")) {
+                Log.d("Websocket", "RECEIVE AUTH:" + url + message);
+                reactNativeAuth(frame.getString(1));
+            } else if (messageType.equals("PAY")) {
+                Log.d("Websocket", "RECEIVE PAY:" + url + message);
+                reactNativePay(frame.getString(1), frame.getString(2), frame.getString(3));
+            }
+        }
+        @Override
+        public void onDisconnected(WebSocket ws, WebSocketFrame serverCloseFrame,
+                                   WebSocketFrame clientCloseFrame, boolean closedByServer) {
+            if (ws == webSocket) {
+                metrics.onDisconnected();
+                reconnectScheduler.onDisconnected(url, Websocket.this::reconnect);
+            }
+        }
+
+        @Override
+        public void onFrame(WebSocket ws, WebSocketFrame frame) {
+            metrics.onWireFrame(frame.getPayloadLength());
+        }
+
+        @Override
+        public void onError(WebSocket ws, WebSocketException exception) {
+            if (exception.getError() == WebSocketError.DECOMPRESSION_ERROR) {
+                declineCompression(exception);
+            }
+        }
+
+        @Override
+        public void onPongFrame(WebSocket ws, WebSocketFrame frame) {
+            try {
+                metrics.onPong((System.nanoTime() - Long.parseLong(frame.getPayloadText())) / 1000000L);
+            } catch (NumberFormatException e) {
+                Log.d("Websocket", "UNSOLICITED PONG URL:" + url);
+            }
+        }
+
+        @Override
+        public void onConnectError(WebSocket ws, WebSocketException exception) {
+            Log.d("Websocket", "CONNECT ERROR URL:" + url + " __ " + exception);
+            if (ws == webSocket) {
+                if (isHandshakeRejection(exception.getError())) {
+                    declineCompression(exception);
+                }
+                reconnectScheduler.onDisconnected(url, Websocket.this::reconnect);
+            }
+        }
+
+        @Override
+        public void onConnected(WebSocket websocket, Map<String, List<String>> headers) throws Exception
+        {
+            Log.d("Websocket", "CONNECTED URL:" + url);
+            reconnectScheduler.onConnected(url);
+            metrics.onConnected();
+            metrics.setCompressed(isDeflateAgreed(websocket));
+            synchronized (outbound) {
+                for (String request : subscriptions.onReconnected(url)) {
+                    metrics.onRequest();
+                    websocket.sendText(request);
+                }
+                for (String message : outbound.drain()) {
+                    websocket.sendText(message);
+                }
+            }
+        }
+    };
+
+    // Until the socket opens, frames wait in the outbound queue and are flushed in order by
+    // onConnected. REQ and CLOSE are not queued: the registry replays live subscriptions instead.
+    // Sending never reconnects a closed socket, that is left to the ReconnectScheduler; only a
+    // parked relay is woken up.
     public void send(String message) {
-        if (webSocket != null) {
-            Log.d("Websocket", "SEND URL:" + url + " __ " + message);
-            if (!webSocket.isOpen()) {
-                try {
-                    this.connect(pubKey);
-                } catch (IOException e) {
-                    e.printStackTrace();
+        boolean subscriptionFrame = message.startsWith("[\"REQ\"") || message.startsWith("[\"CLOSE\"");
+        message = track(message);
+        lastActivityAt = System.currentTimeMillis();
+        if (parked) {
+            reconnect();
+        }
+        WebSocket socket = webSocket;
+        if (socket == null) {
+            return;
+        }
+        Log.d("Websocket", "SEND URL:" + url + " __ " + message);
+        synchronized (outbound) {
+            if (socket.isOpen() && outbound.isEmpty()) {
+                socket.sendText(message);
+                return;
+            }
+            if (!subscriptionFrame) {
+                outbound.offer(message);
+            }
+        }
+    }
+
+    public OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    // NIP-45: ask the relay to count the filter. Relays that reject COUNT or stay silent
+    // get a REQ instead, closed again after EOSE, so the events are counted locally as before.
+    public void count(String subId, String filter, RelayCounts.Listener listener) {
+        if (countUnsupported) {
+            listener.onUnsupported(url);
+            fallback(subId, filter, true);
+            return;
+        }
+        CountSession session = new CountSession(filter, listener);
+        try {
+            String count = new JSONArray().put("COUNT").put(subId).put(new JSONObject(filter)).toString();
+            synchronized (countSessions) {
+                CountSession previous = countSessions.put(subId, session);
+                if (previous != null) {
+                    previous.timeout.cancel(false);
+                    previous.listener.onUnsupported(url);
                 }
+                session.timeout = connections.schedule(() -> countFailed(subId, false), COUNT_TIMEOUT_MS);
             }
-            webSocket.sendText(message);
+            send(count);
+        } catch (JSONException e) {
+            Log.d("Websocket", "COUNT INVALID URL:" + url + " __ " + filter);
+            synchronized (countSessions) {
+                countSessions.remove(subId);
+            }
+            listener.onUnsupported(url);
         }
     }
 
-    public void disconnect() {
-        if (webSocket != null) {
-            webSocket.disconnect();
+    private void onCountMessage(String subId, String payload) {
+        CountSession session;
+        synchronized (countSessions) {
+            session = countSessions.remove(subId);
+        }
+        if (session == null) {
+            return;
+        }
+        session.timeout.cancel(false);
+        try {
+            JSONObject result = new JSONObject(payload);
+            session.listener.onCount(url, result.getLong("count"), result.optBoolean("approximate"));
+        } catch (JSONException e) {
+            Log.d("Websocket", "COUNT INVALID URL:" + url + " __ " + payload);
+            session.listener.onUnsupported(url);
+            fallback(subId, session.filter, true);
         }
     }
 
-    public void connect(String userPubKey) throws IOException {
-        WebSocketFactory factory = new WebSocketFactory();
-        pubKey = userPubKey;
-        webSocket = factory.createSocket(url);
-        webSocket.setMissingCloseFrameAllowed(true);
-        webSocket.setPingInterval(25 * 1000);
-
-        webSocket.addListener(new WebSocketAdapter() {
-            @Override
-            public void onTextMessage(WebSocket websocket, String message) throws Exception {
-                JSONArray jsonArray = new JSONArray(message);
-                String messageType = jsonArray.get(0).toString();
-                if (messageType.equals("EVENT")) {
-                    JSONObject data = jsonArray.getJSONObject(2);
-                    String id = data.getString("id");
-                    if (!createdEvents.contains(id)) {
-                        Log.d("Websocket", "RECEIVE URL:" + url + " __NEW__ " + message);
-                        int action = database.saveEvent(data, userPubKey, url);
-                        if (action >= 2) {
-                            reactNativeNotification(data.getString("id"), data.getString("kind"));
-                        }
-                        if (action >= 1) {
-                            reactNativeEvent(data.getString("id"));
-                        }
-                        createdEvents.add(id);
-                    } else {
-                        Log.d("Websocket", "RECEIVE URL:" + url + " __DUP__ " + message);
-                    }
-                } else if (messageType.equals("OK")) {
-                    Log.d("Websocket", "RECEIVE OK:" + url + message);
-                    reactNativeConfirmation(jsonArray.get(1).toString());
-                } else if (messageType.equals("AUTH")) {
-                    Log.d("Websocket", "RECEIVE AUTH:" + url + message);
-                    reactNativeAuth(jsonArray.get(1).toString());
-                } else if (messageType.equals("PAY")) {
-                    Log.d("Websocket", "RECEIVE PAY:" + url + message);
-                    reactNativePay(jsonArray.get(1).toString(), jsonArray.get(2).toString(), jsonArray.get(3).toString());
+    // Returns false when subId was not a pending count.
+    private boolean countFailed(String subId, boolean rejected) {
+        CountSession session;
+        synchronized (countSessions) {
+            session = countSessions.remove(subId);
+        }
+        if (session == null) {
+            return false;
+        }
+        session.timeout.cancel(false);
+        if (rejected) {
+            countUnsupported = true;
+        }
+        session.listener.onUnsupported(url);
+        fallback(subId, session.filter, true);
+        return true;
+    }
+
+    // NIP-77: reconcile the local set for the filter with the relay and REQ only the missing ids.
+    // Relays without negentropy (NEG-ERR, a NOTICE about NEG- frames or no answer) get the plain REQ.
+    public void negentropy(String subId, String filter, Negentropy.Storage storage) {
+        if (negentropyUnsupported || storage == null) {
+            fallback(subId, filter, false);
+            return;
+        }
+        NegentropySession session = new NegentropySession(subId, filter, new Negentropy(storage));
+        String initial = session.negentropy.initiate();
+        try {
+            String open = new JSONArray().put("NEG-OPEN").put(subId).put(new JSONObject(filter)).put(initial).toString();
+            synchronized (negentropySessions) {
+                NegentropySession previous = negentropySessions.put(subId, session);
+                if (previous != null && previous.timeout != null) {
+                    previous.timeout.cancel(false);
+                }
+                session.timeout = connections.schedule(() -> negentropyTimeout(subId), NEGENTROPY_TIMEOUT_MS);
+            }
+            send(open);
+        } catch (JSONException e) {
+            Log.d("Websocket", "NEG-OPEN INVALID URL:" + url + " __ " + filter);
+            fallback(subId, filter, false);
+        }
+    }
+
+    private void onNegentropyMessage(String subId, String message) {
+        NegentropySession session;
+        synchronized (negentropySessions) {
+            session = negentropySessions.get(subId);
+        }
+        if (session == null) {
+            return;
+        }
+        Negentropy.Result result;
+        try {
+            result = session.negentropy.reconcile(message);
+        } catch (IllegalArgumentException e) {
+            Log.d("Websocket", "NEG-MSG INVALID URL:" + url + " __ " + e);
+            negentropyFailed(subId, false);
+            return;
+        }
+        session.answered = true;
+        session.needIds.addAll(result.needIds);
+        session.haveIds += result.haveIds.size();
+        if (result.output != null) {
+            send(new JSONArray().put("NEG-MSG").put(subId).put(result.output).toString());
+            return;
+        }
+
+        synchronized (negentropySessions) {
+            if (negentropySessions.get(subId) != session) {
+                return;
+            }
+            negentropySessions.remove(subId);
+            session.timeout.cancel(false);
+        }
+        send(new JSONArray().put("NEG-CLOSE").put(subId).toString());
+        metrics.onNegentropy(session.needIds.size(), session.haveIds);
+        Log.d("Websocket", "NEGENTROPY URL:" + url + " __ " + subId + " need " + session.needIds.size() + " have " + session.haveIds);
+        if (session.needIds.isEmpty()) {
+            emitter.eose(subId, url, false);
+            return;
+        }
+        JSONArray request = new JSONArray().put("REQ").put(subId);
+        for (int start = 0; start < session.needIds.size(); start += IDS_PER_FILTER) {
+            JSONArray ids = new JSONArray();
+            for (String id : session.needIds.subList(start, Math.min(session.needIds.size(), start + IDS_PER_FILTER))) {
+                ids.put(id);
+            }
+            try {
+                request.put(new JSONObject().put("ids", ids));
+            } catch (JSONException e) {
+                Log.d("Websocket", e.toString());
+            }
+        }
+        // A one-off fetch: left open, the registry would replay it on every reconnect
+        closeOnEose.add(subId);
+        send(request.toString());
+    }
+
+    private void negentropyTimeout(String subId) {
+        NegentropySession session;
+        synchronized (negentropySessions) {
+            session = negentropySessions.get(subId);
+        }
+        if (session != null) {
+            negentropyFailed(subId, !session.answered);
+        }
+    }
+
+    private void negentropyUnsupported() {
+        List<String> pending = new ArrayList<>();
+        synchronized (negentropySessions) {
+            for (NegentropySession session : negentropySessions.values()) {
+                if (!session.answered) {
+                    pending.add(session.subId);
+                }
+            }
+        }
+        for (String subId : pending) {
+            negentropyFailed(subId, true);
+        }
+    }
+
+    private void negentropyFailed(String subId, boolean unsupported) {
+        NegentropySession session;
+        synchronized (negentropySessions) {
+            session = negentropySessions.remove(subId);
+        }
+        if (session == null) {
+            return;
+        }
+        session.timeout.cancel(false);
+        if (unsupported) {
+            negentropyUnsupported = true;
+        } else {
+            send(new JSONArray().put("NEG-CLOSE").put(subId).toString());
+        }
+        fallback(subId, session.filter, false);
+    }
+
+    private void fallback(String subId, String filter, boolean once) {
+        if (once) {
+            closeOnEose.add(subId);
+        } else {
+            metrics.onNegentropyFallback();
+        }
+        try {
+            send(new JSONArray().put("REQ").put(subId).put(new JSONObject(filter)).toString());
+        } catch (JSONException e) {
+            Log.d("Websocket", "REQ INVALID URL:" + url + " __ " + filter);
+        }
+    }
+
+    public boolean isParked() {
+        return parked;
+    }
+
+    // Idle relays are parked: the socket closes but subscriptions and queued frames are kept.
+    // In the foreground a relay with live subscriptions is never parked, it is waiting for events.
+    @Override
+    public void keepalive(boolean foreground, long idleTimeoutMs) {
+        WebSocket socket = webSocket;
+        if (socket == null || !socket.isOpen()) {
+            return;
+        }
+        boolean idle = System.currentTimeMillis() - lastActivityAt > idleTimeoutMs;
+        if (idle && (!foreground || subscriptions.size(url) == 0)) {
+            park();
+        } else {
+            // Relays echo the payload, so the pong carries its own send time for RTT
+            socket.sendPing(String.valueOf(System.nanoTime()));
+        }
+    }
+
+    @Override
+    public void resume() {
+        if (parked && (subscriptions.size(url) > 0 || !outbound.isEmpty())) {
+            reconnect();
+        }
+    }
+
+    private synchronized void park() {
+        WebSocket socket = webSocket;
+        if (socket == null) {
+            return;
+        }
+        Log.d("Websocket", "PARKED URL:" + url);
+        parked = true;
+        webSocket = null;
+        reconnectScheduler.cancel(url);
+        metrics.onDisconnected();
+        connections.release(socket);
+    }
+
+    public RelayMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Applies from the next connection; a relay that failed the deflate handshake is retried with it.
+    public void setCompression(boolean enabled) {
+        compression = enabled;
+        compressionDeclined = false;
+    }
+
+    private void declineCompression(WebSocketException exception) {
+        if (compression && !compressionDeclined) {
+            Log.d("Websocket", "COMPRESSION DECLINED URL:" + url + " __ " + exception);
+            compressionDeclined = true;
+        }
+    }
+
+    private boolean isHandshakeRejection(WebSocketError error) {
+        return error == WebSocketError.NOT_SWITCHING_PROTOCOLS
+                || error == WebSocketError.UNSUPPORTED_EXTENSION
+                || error == WebSocketError.EXTENSION_PARSE_ERROR
+                || error == WebSocketError.PERMESSAGE_DEFLATE_UNSUPPORTED_PARAMETER
+                || error == WebSocketError.PERMESSAGE_DEFLATE_INVALID_MAX_WINDOW_BITS;
+    }
+
+    private boolean isDeflateAgreed(WebSocket socket) {
+        List<WebSocketExtension> extensions = socket.getAgreedExtensions();
+        if (extensions != null) {
+            for (WebSocketExtension extension : extensions) {
+                if (WebSocketExtension.PERMESSAGE_DEFLATE.equals(extension.getName())) {
+                    return true;
                 }
             }
-            @Override
-            public void onDisconnected(WebSocket ws, WebSocketFrame serverCloseFrame,
-                                       WebSocketFrame clientCloseFrame, boolean closedByServer) {
-                ws.connectAsynchronously();
+        }
+        return false;
+    }
+
+    private String track(String message) {
+        if (!message.startsWith("[\"REQ\"") && !message.startsWith("[\"CLOSE\"")) {
+            return message;
+        }
+        try {
+            RelayFrame frame = RelayFrame.parse(message);
+            if (frame.getType().equals("REQ")) {
+                metrics.onRequest();
+                return subscriptions.open(url, frame.getString(1), message);
             }
+            subscriptions.close(url, frame.getString(1));
+        } catch (JSONException e) {
+            Log.d("Websocket", "SEND INVALID URL:" + url + " __ " + message);
+        }
+        return message;
+    }
 
-            @Override
-            public void onConnected(WebSocket websocket, Map<String, List<String>> headers) throws Exception
-            {
-                Log.d("Websocket", "CONNECTED URL:" + url);
+    public synchronized void disconnect() {
+        parked = false;
+        connections.unregister(this);
+        reconnectScheduler.cancel(url);
+        outbound.clear();
+        metrics.onDisconnected();
+        if (webSocket != null) {
+            connections.release(webSocket);
+            webSocket = null;
+        }
+    }
+
+    private synchronized void reconnect() {
+        try {
+            connect(pubKey);
+        } catch (IOException e) {
+            Log.d("Websocket", "RECONNECT ERROR URL:" + url + " __ " + e);
+        }
+    }
+
+    // Safe to call repeatedly: a socket that is open or still connecting is kept as is.
+    public synchronized void connect(String userPubKey) throws IOException {
+        pubKey = userPubKey;
+        parked = false;
+        lastActivityAt = System.currentTimeMillis();
+        connections.register(this);
+        if (webSocket != null) {
+            WebSocketState state = webSocket.getState();
+            if (state == WebSocketState.CREATED || state == WebSocketState.CONNECTING || state == WebSocketState.OPEN) {
+                return;
             }
-        });
-        webSocket.connectAsynchronously();
+        }
+        if (!reconnectScheduler.onConnecting(url)) {
+            Log.d("Websocket", "RECONNECT SCHEDULED URL:" + url);
+            return;
+        }
+        if (webSocket != null) {
+            connections.release(webSocket);
+        }
+        metrics.onConnecting();
+        webSocket = connections.createSocket(url, listener);
+        if (compression && !compressionDeclined) {
+            webSocket.addExtension(WebSocketExtension.PERMESSAGE_DEFLATE);
+        }
+        connections.connect(webSocket, listener);
     }
 
-    public void reactNativeEvent(String eventId) {
-        WritableMap payload = Arguments.createMap();
-        payload.putString("eventId", eventId);
-        context
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit("WebsocketEvent", payload);
+    @Override
+    public void onEventRejected(Event event) {
+        metrics.onInvalid();
+        subscriptions.onDropped(url, event, false);
     }
 
-    public void reactNativeConfirmation(String eventId) {
-        Log.d("Websocket", "reactNativeConfirmation" + eventId);
-        WritableMap payload = Arguments.createMap();
-        payload.putString("eventId", eventId);
-        context
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit("WebsocketConfirmation", payload);
+    @Override
+    public void onEventFailed(Event event) {
+        subscriptions.onDropped(url, event, true);
     }
 
-    public void reactNativeNotification(String eventId, String kind) {
-        Log.d("Websocket", "reactNativeNotification");
-        WritableMap payload = Arguments.createMap();
-        payload.putString("eventId", eventId);
-        payload.putString("kind", kind);
-        context
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit("WebsocketNotification", payload);
+    @Override
+    public void onEventSaved(Event event, int action) {
+        subscriptions.onCommitted(url, event);
+        if (action >= 2) {
+            emitter.notification(event.getId(), event.getKind());
+        }
+        if (action >= 1) {
+            emitter.event(event.getId(), event.getSubscriptions());
+        }
     }
 
     public void reactNativeAuth(String challenge) {
@@ -141,9 +629,7 @@ public class Websocket {
         WritableMap payload = Arguments.createMap();
         payload.putString("description", challenge);
         payload.putString("url", url);
-        context
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit("WebsocketAuth", payload);
+        emitter.emit("WebsocketAuth", payload);
     }
 
     public void reactNativePay(String invoice, String description, String url) {
@@ -152,8 +638,6 @@ public class Websocket {
         payload.putString("invoice", invoice);
         payload.putString("description", description);
         payload.putString("url", url);
-        context
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit("WebsocketPay", payload);
+        emitter.emit("WebsocketPay", payload);
     }
 }
@@ -38,135 +38,186 @@ public class DatabaseModule extends ReactContextBaseJavaModule {
         return "DatabaseModule";
     }
 
+    @Override
+    public void invalidate() {
+        database.close();
+        super.invalidate();
+    }
+
+    // Calls back once the database opened at startup is ready, or with the error when opening
+    // it failed. Calling it again after a failure retries the open.
+    @ReactMethod
+    public void ready(Callback callback) {
+        database.openAsync();
+        database.whenReady(() -> callback.invoke(), () -> callback.invoke(database.getOpenError()));
+    }
+
+    // Re-indexes the tags of every stored event; calls back with the number of events scanned.
+    @ReactMethod
+    public void rebuildEventTags(Callback callback) {
+        database.whenReady(() -> new Thread(() -> {
+            database.eventTags.reset();
+            callback.invoke((double) database.eventTags.rebuild());
+        }, "EventTags").start());
+    }
+
     @ReactMethod
     public void updateConversationRead(String conversationId) {
-        String whereClause = "conversation_id = ?";
-        String[] whereArgs = new String[] {
-                conversationId
-        };
-        ContentValues values = new ContentValues();
-        values.put("read", 1);
-        database.instance.update("nostros_direct_messages", values, whereClause, whereArgs);
+        database.whenReady(() -> {
+            String whereClause = "conversation_id = ?";
+            String[] whereArgs = new String[] {
+                    conversationId
+            };
+            ContentValues values = new ContentValues();
+            values.put("read", 1);
+            database.instance.update("nostros_direct_messages", values, whereClause, whereArgs);
+        });
     }
 
     @ReactMethod
     public void updateAllDirectMessagesRead() {
-        String whereClause = "";
-        String[] whereArgs = new String[] {};
-        ContentValues values = new ContentValues();
-        values.put("read", 1);
-        database.instance.update("nostros_direct_messages", values, whereClause, whereArgs);
+        database.whenReady(() -> {
+            String whereClause = "";
+            String[] whereArgs = new String[] {};
+            ContentValues values = new ContentValues();
+            values.put("read", 1);
+            database.instance.update("nostros_direct_messages", values, whereClause, whereArgs);
+        });
     }
 
     @ReactMethod
     public void updateUserContact(String userId, boolean contact, Callback callback) {
-        String whereClause = "id = ?";
-        String[] whereArgs = new String[] { userId };
-        ContentValues values = new ContentValues();
-        values.put("contact", contact ? 1 : 0);
-        database.instance.update("nostros_users", values, whereClause, whereArgs);
-        callback.invoke();
+        database.whenReady(() -> {
+            String whereClause = "id = ?";
+            String[] whereArgs = new String[] { userId };
+            ContentValues values = new ContentValues();
+            values.put("contact", contact ? 1 : 0);
+            database.instance.update("nostros_users", values, whereClause, whereArgs);
+            callback.invoke();
+        });
     }
 
     @ReactMethod
     public void updateUserBlock(String userId, boolean blocked, Callback callback) {
-        String whereClause = "id = ?";
-        String[] whereArgs = new String[] { userId };
-        ContentValues values = new ContentValues();
-        values.put("blocked", blocked ? 1 : 0);
-        database.instance.update("nostros_users", values, whereClause, whereArgs);
-        callback.invoke();
+        database.whenReady(() -> {
+            String whereClause = "id = ?";
+            String[] whereArgs = new String[] { userId };
+            ContentValues values = new ContentValues();
+            values.put("blocked", blocked ? 1 : 0);
+            database.instance.update("nostros_users", values, whereClause, whereArgs);
+            callback.invoke();
+        });
     }
 
     @ReactMethod
     public void updateUserMutesGroups(String userId, boolean muted, Callback callback) {
-        String whereClause = "id = ?";
-        String[] whereArgs = new String[] { userId };
-        ContentValues values = new ContentValues();
-        values.put("muted_groups", muted ? 1 : 0);
-        database.instance.update("nostros_users", values, whereClause, whereArgs);
-        callback.invoke();
+        database.whenReady(() -> {
+            String whereClause = "id = ?";
+            String[] whereArgs = new String[] { userId };
+            ContentValues values = new ContentValues();
+            values.put("muted_groups", muted ? 1 : 0);
+            database.instance.update("nostros_users", values, whereClause, whereArgs);
+            callback.invoke();
+        });
     }
 
     @ReactMethod
     public void updateAllGroupMessagesRead() {
-        String whereClause = "";
-        String[] whereArgs = new String[] { };
-        ContentValues values = new ContentValues();
-        values.put("read", 1);
-        database.instance.update("nostros_group_messages", values, whereClause, whereArgs);
+        database.whenReady(() -> {
+            String whereClause = "";
+            String[] whereArgs = new String[] { };
+            ContentValues values = new ContentValues();
+            values.put("read", 1);
+            database.instance.update("nostros_group_messages", values, whereClause, whereArgs);
+        });
     }
 
     @ReactMethod
     public void addGroup(String groupId, String groupName, String pubkey, Callback callback) {
-        ContentValues values = new ContentValues();
-        values.put("id", groupId);
-        values.put("name", groupName);
-        values.put("created_at", 0);
-        values.put("pubkey", pubkey);
-        database.instance.insert("nostros_group_meta", null, values);
-        callback.invoke();
+        database.whenReady(() -> {
+            ContentValues values = new ContentValues();
+            values.put("id", groupId);
+            values.put("name", groupName);
+            values.put("created_at", 0);
+            values.put("pubkey", pubkey);
+            database.instance.insert("nostros_group_meta", null, values);
+            callback.invoke();
+        });
     }
 
     @ReactMethod
     public void updateGroupRead(String groupId) {
-        String whereClause = "group_id = ?";
-        String[] whereArgs = new String[] { groupId };
-        ContentValues values = new ContentValues();
-        values.put("read", 1);
-        database.instance.update("nostros_group_messages", values, whereClause, whereArgs);
+        database.whenReady(() -> {
+            String whereClause = "group_id = ?";
+            String[] whereArgs = new String[] { groupId };
+            ContentValues values = new ContentValues();
+            values.put("read", 1);
+            database.instance.update("nostros_group_messages", values, whereClause, whereArgs);
+        });
     }
 
     @ReactMethod
     public void deleteGroup(String groupId) {
-        String whereClause = "id = ?";
-        String[] whereArgs = new String[] { groupId };
-        ContentValues values = new ContentValues();
-        values.put("deleted", 1);
-        database.instance.update("nostros_group_meta", values, whereClause, whereArgs);
+        database.whenReady(() -> {
+            String whereClause = "id = ?";
+            String[] whereArgs = new String[] { groupId };
+            ContentValues values = new ContentValues();
+            values.put("deleted", 1);
+            database.instance.update("nostros_group_meta", values, whereClause, whereArgs);
+        });
     }
 
     @ReactMethod
     public void activateGroup(String groupId) {
-        String whereClause = "id = ?";
-        String[] whereArgs = new String[] { groupId };
-        ContentValues values = new ContentValues();
-        values.put("deleted", 0);
-        database.instance.update("nostros_group_meta", values, whereClause, whereArgs);
+        database.whenReady(() -> {
+            String whereClause = "id = ?";
+            String[] whereArgs = new String[] { groupId };
+            ContentValues values = new ContentValues();
+            values.put("deleted", 0);
+            database.instance.update("nostros_group_meta", values, whereClause, whereArgs);
+        });
     }
 
     @ReactMethod
     public void desactivateResilientRelays() {
-        String whereClause = "resilient = ?";
-        String[] whereArgs = new String[] { "1" };
-        ContentValues values = new ContentValues();
-        values.put("resilient", 0);
-        database.instance.update("nostros_relays", values, whereClause, whereArgs);
+        database.whenReady(() -> {
+            String whereClause = "resilient = ?";
+            String[] whereArgs = new String[] { "1" };
+            ContentValues values = new ContentValues();
+            values.put("resilient", 0);
+            database.instance.update("nostros_relays", values, whereClause, whereArgs);
+        });
     }
 
     @ReactMethod
     public void activateResilientRelay(String relayUrl) {
-        String whereClause = "url = ?";
-        String[] whereArgs = new String[] { relayUrl };
-        ContentValues values = new ContentValues();
-        values.put("resilient", 1);
-        database.instance.update("nostros_relays", values, whereClause, whereArgs);
+        database.whenReady(() -> {
+            String whereClause = "url = ?";
+            String[] whereArgs = new String[] { relayUrl };
+            ContentValues values = new ContentValues();
+            values.put("resilient", 1);
+            database.instance.update("nostros_relays", values, whereClause, whereArgs);
+        });
     }
 
     @ReactMethod
     public void createResilientRelay(String relayUrl) {
-        ContentValues values = new ContentValues();
-        values.put("url", relayUrl);
-        values.put("resilient", 1);
-        values.put("active", 1);
-        database.instance.insert("nostros_relays", null, values);
+        database.whenReady(() -> {
+            ContentValues values = new ContentValues();
+            values.put("url", relayUrl);
+            values.put("resilient", 1);
+            values.put("active", 1);
+            database.instance.insert("nostros_relays", null, values);
+        });
     }
 
     @ReactMethod
     public void addUser(String userId, Callback callback) {
-        ContentValues values = new ContentValues();
-        values.put("id", userId);
-        database.instance.insert("nostros_users", null, values);
-        callback.invoke();
+        database.whenReady(() -> {
+            ContentValues values = new ContentValues();
+            values.put("id", userId);
+            database.instance.insert("nostros_users", null, values);
+            callback.invoke();
+        });
     }
 }
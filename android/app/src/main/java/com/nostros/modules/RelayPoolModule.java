@@ -2,29 +2,81 @@ package com.nostros.modules;
 
 import android.util.Log;
 
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.nostros.classes.BridgeEmitter;
+import com.nostros.classes.ConnectionManager;
 import com.nostros.classes.Database;
+import com.nostros.classes.EventIdIndex;
+import com.nostros.classes.EventIngest;
+import com.nostros.classes.EventStatements;
+import com.nostros.classes.EventVerifier;
+import com.nostros.classes.FilterMatcher;
+import com.nostros.classes.Negentropy;
+import com.nostros.classes.OutboundQueue;
+import com.nostros.classes.OutboxRouter;
+import com.nostros.classes.ReconnectScheduler;
 import com.nostros.classes.Relay;
+import com.nostros.classes.RelayCounts;
+import com.nostros.classes.RelayFrame;
+import com.nostros.classes.StartupMetrics;
+import com.nostros.classes.SubscriptionRegistry;
+import com.nostros.classes.SyncCursors;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class RelayPoolModule extends ReactContextBaseJavaModule {
-    protected List<Relay> relays;
+public class RelayPoolModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
+    protected final Map<String, Relay> relays = new ConcurrentHashMap<>();
     private String userPubKey;
     private Database database;
     private ReactApplicationContext context;
-    private ArrayList<String> createdEvents;
+    private EventIngest eventIngest;
+    private BridgeEmitter emitter;
+    private ConnectionManager connections;
+    private SubscriptionRegistry subscriptions;
+    private OutboxRouter outboxRouter;
+    private RelayCounts relayCounts;
 
     public RelayPoolModule(ReactApplicationContext reactContext, Database databaseEntity) {
         database = databaseEntity;
         context = reactContext;
-        createdEvents = new ArrayList<>();
+        eventIngest = new EventIngest(database);
+        emitter = new BridgeEmitter(reactContext);
+        connections = new ConnectionManager();
+        subscriptions = new SubscriptionRegistry(new SyncCursors(database));
+        outboxRouter = new OutboxRouter(database);
+        relayCounts = new RelayCounts(database);
+        reactContext.addLifecycleEventListener(this);
+    }
+
+    @Override
+    public void onHostResume() {
+        connections.setForeground(true);
+    }
+
+    @Override
+    public void onHostPause() {
+        connections.setForeground(false);
+    }
+
+    @Override
+    public void onHostDestroy() {
+        connections.setForeground(false);
     }
 
     @Override
@@ -32,12 +84,34 @@ public class RelayPoolModule extends ReactContextBaseJavaModule {
         return "RelayPoolModule";
     }
 
+    // The module is rebuilt on a JS reload; its relays and threads must not outlive it.
+    @Override
+    public void invalidate() {
+        context.removeLifecycleEventListener(this);
+        for (Relay relay : relays.values()) {
+            synchronized (relay) {
+                relay.disconnect();
+            }
+        }
+        relays.clear();
+        connections.shutdown();
+        eventIngest.shutdown();
+        emitter.shutdown();
+        super.invalidate();
+    }
+
     private void add(String url, int resilient, int showGlobalFeed) {
         try {
-            Relay relay = new Relay(url, 1, showGlobalFeed, resilient, database, context, createdEvents);
-            relay.connect(userPubKey);
-            relays.add(relay);
-            database.saveRelay(relay);
+            Relay relay = new Relay(url, 1, showGlobalFeed, resilient, database, emitter, eventIngest, connections, subscriptions);
+            Relay existing = relays.putIfAbsent(url, relay);
+            if (existing != null) {
+                relay = existing;
+            }
+            synchronized (relay) {
+                relay.setActive(1);
+                relay.connect(userPubKey);
+                database.saveRelay(relay);
+            }
         } catch (IOException e) {
             Log.d("WebSocket", e.toString());
         }
@@ -45,101 +119,381 @@ public class RelayPoolModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void add(String url, int resilient, int showGlobalFeed, Callback callback) {
-        this.add(url, resilient, showGlobalFeed);
-        callback.invoke();
+        database.whenReady(() -> {
+            this.add(url, resilient, showGlobalFeed);
+            callback.invoke();
+        });
     }
 
     @ReactMethod
     public void remove(String url, Callback callback) {
-        ListIterator<Relay> iterator = relays.listIterator();
-        while(iterator.hasNext()){
-            Relay relay = iterator.next();
-            if(url.equals(relay.url)){
+        database.whenReady(() -> {
+            Relay relay = relays.remove(url);
+            if (relay != null) {
                 relay.disconnect();
-                iterator.remove();
+                subscriptions.clear(url);
             }
-        }
-        database.deleteRelay(url);
-        callback.invoke();
+            database.deleteRelay(url);
+            callback.invoke();
+        });
     }
 
     @ReactMethod
     public void removeAll(Callback callback) {
-        ListIterator<Relay> iterator = relays.listIterator();
-        while(iterator.hasNext()){
-            Relay relay = iterator.next();
-            relay.disconnect();
-            iterator.remove();
-            database.deleteRelay(relay.url);
-        }
-        callback.invoke();
+        database.whenReady(() -> {
+            for (String url : relays.keySet()) {
+                Relay relay = relays.remove(url);
+                if (relay != null) {
+                    relay.disconnect();
+                    subscriptions.clear(url);
+                    database.deleteRelay(url);
+                }
+            }
+            subscriptions.getCursors().clear();
+            callback.invoke();
+        });
     }
 
     @ReactMethod
-    public void update(String url, int active, int globalFeed, int paid, Callback callback) throws IOException {
-        ListIterator<Relay> iterator = relays.listIterator();
-        boolean relayExists = false;
-        while(iterator.hasNext()){
-            Relay relay = iterator.next();
-            if(url.equals(relay.url)){
-                int index = relays.indexOf(relay);
-                relay.connect(userPubKey);
-                relay.setActive(active);
-                relay.setGlobalFeed(globalFeed);
-                relay.setPaid(paid);
-                relay.save(database);
-                this.relays.set(index, relay);
-                relayExists = true;
-            }
-        }
-
-        if (!relayExists) {
-            this.add(url, 0, 1);
-        }
+    public void update(String url, int active, int globalFeed, int paid, Callback callback) {
+        database.whenReady(() -> {
+            try {
+                Relay relay = relays.get(url);
+                if (relay == null) {
+                    this.add(url, 0, 1);
+                } else {
+                    synchronized (relay) {
+                        if (active > 0) {
+                            relay.connect(userPubKey);
+                        } else {
+                            relay.disconnect();
+                        }
+                        relay.setActive(active);
+                        relay.setGlobalFeed(globalFeed);
+                        relay.setPaid(paid);
+                        relay.save(database);
+                    }
+                }
 
-        callback.invoke();
+                callback.invoke();
+            } catch (IOException e) {
+                Log.d("WebSocket", e.toString());
+                callback.invoke(e.toString());
+            }
+        });
     }
 
+    // Relays already in the pool are kept, so their sockets and metrics survive a reconnect.
+    // Compression is negotiated on the handshake, so an active relay reconnects to apply it.
     @ReactMethod
-    public void connect(String pubKey, Callback callback) {
-        userPubKey = pubKey;
-        relays = database.getRelays(context, createdEvents);
-        for (Relay relay : relays) {
+    public void setCompression(String url, int compression, Callback callback) {
+        database.whenReady(() -> {
             try {
-                if (relay.active() > 0) {
-                    relay.connect(pubKey);
+                Relay relay = relays.get(url);
+                if (relay != null) {
+                    synchronized (relay) {
+                        relay.setCompression(compression);
+                        relay.save(database);
+                        if (relay.active() > 0) {
+                            relay.disconnect();
+                            relay.connect(userPubKey);
+                        }
+                    }
                 }
+                callback.invoke();
             } catch (IOException e) {
                 Log.d("WebSocket", e.toString());
+                callback.invoke(e.toString());
             }
-        }
-        callback.invoke();
+        });
+    }
+
+    @ReactMethod
+    public void connect(String pubKey, Callback callback) {
+        database.whenReady(() -> {
+            userPubKey = pubKey;
+            for (Relay loaded : database.getRelays(emitter, eventIngest, connections, subscriptions)) {
+                relays.putIfAbsent(loaded.url, loaded);
+            }
+            for (Relay relay : relays.values()) {
+                try {
+                    synchronized (relay) {
+                        if (relay.active() > 0) {
+                            relay.connect(pubKey);
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.d("WebSocket", e.toString());
+                }
+            }
+            callback.invoke();
+        });
     }
 
     @ReactMethod
     public void disconnect(Callback callback) {
-        relays = database.getRelays(context, createdEvents);
-        for (Relay relay : relays) {
-            relay.disconnect();
-        }
-        callback.invoke();
+        database.whenReady(() -> {
+            for (Relay relay : relays.values()) {
+                synchronized (relay) {
+                    relay.disconnect();
+                }
+            }
+            callback.invoke();
+        });
     }
 
     @ReactMethod
-    public void sendAll(String message, boolean isGlobalFeed) throws IOException {
-        for (Relay relay : relays) {
-            if (relay.active() > 0 && (!isGlobalFeed || relay.globalFeed > 0)) {
-                relay.send(message);
+    public void sendAll(String message, boolean isGlobalFeed) {
+        database.whenReady(() -> {
+            List<Relay> targets = new ArrayList<>();
+            for (Relay relay : relays.values()) {
+                if (relay.active() > 0 && (!isGlobalFeed || relay.globalFeed > 0)) {
+                    targets.add(relay);
+                }
             }
-        }
+            Map<Relay, String> routed = outboxRouter.route(message, targets);
+            if (routed == null) {
+                for (Relay relay : targets) {
+                    relay.send(message);
+                }
+                return;
+            }
+            String subId = null;
+            try {
+                subId = RelayFrame.parse(message).getString(1);
+            } catch (JSONException e) {
+                Log.d("WebSocket", e.toString());
+            }
+            for (Relay relay : targets) {
+                String relayMessage = routed.get(relay);
+                if (relayMessage != null) {
+                    relay.send(relayMessage);
+                } else if (subId != null && subscriptions.get(relay.url, subId) != null) {
+                    // The relay no longer serves any author of a replaced subscription
+                    relay.send(new JSONArray().put("CLOSE").put(subId).toString());
+                }
+            }
+        });
+    }
+
+    // NIP-45 count of one filter, answered from nostros_counts while younger than maxAgeSeconds.
+    // The callback gets -1 when no relay supports COUNT; those relays were sent a plain REQ instead.
+    @ReactMethod
+    public void count(String subId, String filter, int maxAgeSeconds, Callback callback) {
+        database.whenReady(() -> {
+            RelayCounts.Result result = (count, approximate, cached, answered, fallbacks) -> {
+                WritableMap payload = Arguments.createMap();
+                payload.putDouble("count", answered > 0 || cached ? count : -1);
+                payload.putBoolean("approximate", approximate);
+                payload.putBoolean("cached", cached);
+                payload.putInt("relays", answered);
+                payload.putInt("fallbacks", fallbacks);
+                callback.invoke(payload);
+            };
+            try {
+                RelayCounts.Request request = relayCounts.request(filter, maxAgeSeconds, result);
+                if (request == null) {
+                    return;
+                }
+                List<Relay> targets = new ArrayList<>();
+                for (Relay relay : relays.values()) {
+                    if (relay.active() > 0) {
+                        targets.add(relay);
+                        request.expect();
+                    }
+                }
+                if (targets.isEmpty()) {
+                    request.finish();
+                }
+                for (Relay relay : targets) {
+                    relay.count(subId, filter, request);
+                }
+            } catch (JSONException e) {
+                Log.d("WebSocket", e.toString());
+                result.onResult(0, false, false, 0, 0);
+            }
+        });
+    }
+
+    // NIP-77 sync of one filter against every active relay; only ids missing locally are downloaded.
+    @ReactMethod
+    public void negentropySync(String subId, String filter, boolean isGlobalFeed) {
+        database.whenReady(() -> {
+            Negentropy.Storage storage = null;
+            try {
+                storage = database.negentropyStorage(new JSONObject(filter));
+            } catch (JSONException e) {
+                Log.d("WebSocket", e.toString());
+            }
+            for (Relay relay : relays.values()) {
+                if (relay.active() > 0 && (!isGlobalFeed || relay.globalFeed > 0)) {
+                    relay.negentropy(subId, filter, storage);
+                }
+            }
+        });
+    }
+
+    @ReactMethod
+    public void setRoutingMode(String mode, int redundancy) {
+        outboxRouter.configure(mode.equals("outbox"), redundancy);
     }
 
     @ReactMethod
     public void sendRelay(String message, String relayUrl) {
-        for (Relay relay : relays) {
-            if (relay.active() > 0 && relayUrl.equals(relay.url)) {
+        database.whenReady(() -> {
+            Relay relay = relays.get(relayUrl);
+            if (relay != null && relay.active() > 0) {
                 relay.send(message);
             }
+        });
+    }
+
+    @ReactMethod
+    public void getRelayStates(Callback callback) {
+        WritableArray states = Arguments.createArray();
+        long now = System.currentTimeMillis();
+        for (ReconnectScheduler.RelayState relayState : connections.getReconnectScheduler().getStates()) {
+            WritableMap state = Arguments.createMap();
+            state.putString("url", relayState.url);
+            state.putString("state", relayState.state.name().toLowerCase());
+            state.putInt("failures", relayState.failures);
+            state.putDouble("retryInMs", Math.max(0, relayState.nextAttemptAt - now));
+            Relay relay = relays.get(relayState.url);
+            if (relay != null) {
+                state.putBoolean("parked", relay.isParked());
+                OutboundQueue outbound = relay.getOutbound();
+                state.putInt("queueDepth", outbound.getDepth());
+                state.putDouble("queuedBytes", outbound.getQueuedBytes());
+                state.putDouble("dropped", outbound.getDropped());
+                state.putDouble("lastFlushLatencyMs", outbound.getLastFlushLatencyMs());
+                state.putDouble("averageFlushLatencyMs", outbound.getAverageFlushLatencyMs());
+            }
+            states.pushMap(state);
         }
+        callback.invoke(states);
+    }
+
+    @ReactMethod
+    public void getRelayStats(Callback callback) {
+        WritableArray stats = Arguments.createArray();
+        for (Relay relay : relays.values()) {
+            WritableMap relayStats = Arguments.createMap();
+            relayStats.putString("url", relay.url);
+            try {
+                JSONObject summary = relay.getMetrics().toJson();
+                Iterator<String> keys = summary.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    relayStats.putDouble(key, summary.getDouble(key));
+                }
+            } catch (JSONException e) {
+                Log.d("WebSocket", e.toString());
+            }
+            relay.saveStats(database);
+            stats.pushMap(relayStats);
+        }
+        callback.invoke(stats);
+    }
+
+    @ReactMethod
+    public void configureKeepalive(int foregroundIntervalMs, int backgroundIntervalMs, int idleTimeoutMs) {
+        connections.configureKeepalive(foregroundIntervalMs, backgroundIntervalMs, idleTimeoutMs);
+    }
+
+    @ReactMethod
+    public void getConnectionStats(Callback callback) {
+        WritableMap stats = Arguments.createMap();
+        stats.putBoolean("foreground", connections.isForeground());
+        stats.putDouble("pingIntervalMs", connections.getPingIntervalMs());
+        stats.putDouble("idleTimeoutMs", connections.getIdleTimeoutMs());
+        stats.putInt("sockets", connections.getSocketCount());
+        stats.putInt("open", connections.getOpenCount());
+        stats.putInt("socketThreads", connections.getSocketThreadCount());
+        stats.putInt("sharedThreads", connections.getSharedThreadCount());
+        stats.putInt("processThreads", Thread.activeCount());
+        callback.invoke(stats);
+    }
+
+    @ReactMethod
+    public void configureEmitter(int windowMs, int maxBatch) {
+        emitter.configure(windowMs, maxBatch);
+    }
+
+    @ReactMethod
+    public void setCursorOverlap(int seconds) {
+        subscriptions.getCursors().setOverlapSeconds(seconds);
+    }
+
+    @ReactMethod
+    public void getPipelineStats(Callback callback) {
+        database.whenReady(() -> {
+            EventIdIndex seenEvents = eventIngest.getSeenEvents();
+            WritableMap dedup = Arguments.createMap();
+            dedup.putInt("size", seenEvents.size());
+            dedup.putDouble("hits", seenEvents.getHits());
+            dedup.putDouble("misses", seenEvents.getMisses());
+            dedup.putDouble("evictions", seenEvents.getEvictions());
+            dedup.putDouble("hitRate", seenEvents.getHitRate());
+
+            EventVerifier verifier = eventIngest.getVerifier();
+            WritableMap verification = Arguments.createMap();
+            verification.putInt("workers", verifier.getWorkers());
+            verification.putInt("queueDepth", verifier.getQueueDepth());
+            verification.putDouble("verified", verifier.getVerified());
+            verification.putDouble("rejected", verifier.getRejected());
+            verification.putDouble("known", verifier.getKnown());
+            verification.putDouble("averageVerifyMicros", verifier.getAverageVerifyNanos() / 1000.0);
+            verification.putDouble("savedCpuMs", eventIngest.getSavedVerifyNanos() / 1000000.0);
+
+            SyncCursors syncCursors = subscriptions.getCursors();
+            WritableMap cursors = Arguments.createMap();
+            cursors.putDouble("boundedRequests", syncCursors.getBoundedRequests());
+            cursors.putDouble("savedEvents", syncCursors.getSavedEvents());
+            cursors.putDouble("savedBytes", syncCursors.getSavedBytes());
+
+            FilterMatcher matcher = subscriptions.getMatcher();
+            WritableMap matching = Arguments.createMap();
+            matching.putInt("filters", matcher.getFilterCount());
+            matching.putDouble("matched", matcher.getMatched());
+            matching.putDouble("dropped", matcher.getDropped());
+
+            WritableMap counts = Arguments.createMap();
+            counts.putDouble("requests", relayCounts.getRequests());
+            counts.putDouble("cacheHits", relayCounts.getCacheHits());
+            counts.putDouble("fallbacks", relayCounts.getFallbacks());
+
+            EventStatements eventStatements = database.statements;
+            WritableMap storage = Arguments.createMap();
+            storage.putInt("compiledStatements", eventStatements.getCompiled());
+            storage.putDouble("saves", eventStatements.getSaves());
+            storage.putDouble("averageSaveMicros", eventStatements.getAverageSaveNanos() / 1000.0);
+            storage.putInt("schemaVersion", database.getSchemaVersion());
+            storage.putInt("migratedFrom", database.getMigratedFrom());
+            storage.putDouble("openMs", database.getOpenNanos() / 1000000.0);
+            storage.putDouble("databaseBytes", database.getDatabaseBytes());
+            storage.putBoolean("eventTagsRebuilding", database.eventTags.isRebuilding());
+            storage.putDouble("eventTagsRebuilt", database.eventTags.getRebuiltEvents());
+            storage.putString("journalMode", database.getJournalMode());
+            storage.putDouble("lockWaits", database.getLockWaits());
+            storage.putDouble("averageLockWaitMs", database.getAverageLockWaitNanos() / 1000000.0);
+            storage.putDouble("maxLockWaitMs", database.getMaxLockWaitNanos() / 1000000.0);
+            storage.putDouble("checkpoints", database.getCheckpoints());
+            storage.putDouble("averageCheckpointMs", database.getAverageCheckpointNanos() / 1000000.0);
+            storage.putDouble("walFrames", database.getWalFrames());
+
+            WritableMap startup = Arguments.createMap();
+            startup.putDouble("firstFrameMs", StartupMetrics.getFirstFrameMs());
+            startup.putDouble("databaseReadyMs", StartupMetrics.getDatabaseReadyMs());
+
+            WritableMap stats = Arguments.createMap();
+            stats.putMap("dedup", dedup);
+            stats.putMap("verifier", verification);
+            stats.putMap("cursors", cursors);
+            stats.putMap("matcher", matching);
+            stats.putMap("counts", counts);
+            stats.putMap("storage", storage);
+            stats.putMap("startup", startup);
+            callback.invoke(stats);
+        });
     }
 }
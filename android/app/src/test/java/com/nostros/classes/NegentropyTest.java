@@ -0,0 +1,108 @@
+package com.nostros.classes;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Reconciles against a responder Negentropy standing in for the relay, as NEG-OPEN/NEG-MSG would.
+public class NegentropyTest {
+    private static final long NOW = 1700000000L;
+    // Enough ids for the first round to split into fingerprinted buckets instead of listing them.
+    private static final int SHARED = 300;
+    private static final int MAX_ROUNDS = 20;
+
+    @Test
+    public void findsIdsMissingOnEitherSide() {
+        Negentropy.Storage local = new Negentropy.Storage();
+        Negentropy.Storage remote = new Negentropy.Storage();
+        for (int i = 0; i < SHARED; ++i) {
+            local.insert(createdAt(i), id(i));
+            remote.insert(createdAt(i), id(i));
+        }
+        Set<String> expectedNeed = new HashSet<>();
+        for (int i = SHARED; i < SHARED + 40; ++i) {
+            remote.insert(createdAt(i), id(i));
+            expectedNeed.add(id(i));
+        }
+        Set<String> expectedHave = new HashSet<>();
+        for (int i = SHARED + 40; i < SHARED + 45; ++i) {
+            local.insert(createdAt(i), id(i));
+            expectedHave.add(id(i));
+        }
+
+        Set<String> need = new HashSet<>();
+        Set<String> have = new HashSet<>();
+        int rounds = reconcile(local, remote, need, have);
+
+        assertEquals(expectedNeed, need);
+        assertEquals(expectedHave, have);
+        assertTrue(rounds > 1);
+    }
+
+    @Test
+    public void identicalSetsFinishInOneRound() {
+        Negentropy.Storage local = new Negentropy.Storage();
+        Negentropy.Storage remote = new Negentropy.Storage();
+        for (int i = 0; i < SHARED; ++i) {
+            local.insert(createdAt(i), id(i));
+            remote.insert(createdAt(i), id(i));
+        }
+
+        Set<String> need = new HashSet<>();
+        Set<String> have = new HashSet<>();
+
+        assertEquals(1, reconcile(local, remote, need, have));
+        assertTrue(need.isEmpty());
+        assertTrue(have.isEmpty());
+    }
+
+    @Test
+    public void emptyLocalNeedsEverything() {
+        Negentropy.Storage local = new Negentropy.Storage();
+        Negentropy.Storage remote = new Negentropy.Storage();
+        Set<String> expectedNeed = new HashSet<>();
+        for (int i = 0; i < SHARED; ++i) {
+            remote.insert(createdAt(i), id(i));
+            expectedNeed.add(id(i));
+        }
+
+        Set<String> need = new HashSet<>();
+        Set<String> have = new HashSet<>();
+        reconcile(local, remote, need, have);
+
+        assertEquals(expectedNeed, need);
+        assertTrue(have.isEmpty());
+    }
+
+    // Returns the number of NEG-MSG round trips until the initiator has nothing left to ask.
+    private static int reconcile(Negentropy.Storage local, Negentropy.Storage remote, Set<String> need, Set<String> have) {
+        Negentropy client = new Negentropy(local);
+        Negentropy relay = new Negentropy(remote);
+        String message = client.initiate();
+        int rounds = 0;
+        while (message != null) {
+            if (++rounds > MAX_ROUNDS) {
+                throw new AssertionError("Reconciliation did not converge");
+            }
+            Negentropy.Result answer = relay.reconcile(message);
+            Negentropy.Result result = client.reconcile(answer.output);
+            need.addAll(result.needIds);
+            have.addAll(result.haveIds);
+            message = result.output;
+        }
+        return rounds;
+    }
+
+    // Several events per second, so items are also ordered by id within a timestamp.
+    private static long createdAt(int index) {
+        return NOW + index / 3;
+    }
+
+    private static String id(int index) {
+        return String.format("%064x", index * 7919L + 1);
+    }
+}
@@ -0,0 +1,83 @@
+package com.nostros.classes;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// REQs are bounded by the stored cursor of their filters, including on the first issue after a restart.
+public class SubscriptionRegistryTest {
+    private static final String URL = "wss://relay.test";
+    private static final String REQUEST = "[\"REQ\",\"feed\",{\"kinds\":[1],\"authors\":[\"aa\"],\"limit\":50}]";
+    private static final long CURSOR = 1700000000L;
+    private static final long OVERLAP = 60;
+
+    // Cursor rows as a previous run left them in nostros_relay_cursors.
+    private static class StoredCursors extends SyncCursors {
+        final Map<String, long[]> rows = new HashMap<>();
+
+        StoredCursors() {
+            super(null);
+            setOverlapSeconds(OVERLAP);
+        }
+
+        @Override
+        long[] load(String relayUrl, String filterKey) {
+            return rows.get(relayUrl + " " + filterKey);
+        }
+    }
+
+    private StoredCursors cursors;
+    private SubscriptionRegistry registry;
+
+    @Before
+    public void setUp() {
+        cursors = new StoredCursors();
+        registry = new SubscriptionRegistry(cursors);
+    }
+
+    @Test
+    public void firstIssueAfterRestartIsBounded() throws JSONException {
+        storeCursor();
+
+        String outgoing = registry.open(URL, "feed", REQUEST);
+
+        assertEquals(CURSOR - OVERLAP, since(outgoing));
+        assertTrue(registry.get(URL, "feed").bounded);
+    }
+
+    @Test
+    public void requestQueuedBeforeConnectingIsBounded() throws JSONException {
+        registry.open(URL, "feed", REQUEST);
+        storeCursor();
+
+        List<String> requests = registry.onReconnected(URL);
+
+        assertEquals(1, requests.size());
+        assertEquals(CURSOR - OVERLAP, since(requests.get(0)));
+        assertTrue(registry.get(URL, "feed").bounded);
+    }
+
+    @Test
+    public void requestWithoutCursorIsUnchanged() {
+        assertEquals(REQUEST, registry.open(URL, "feed", REQUEST));
+        assertFalse(registry.get(URL, "feed").bounded);
+    }
+
+    private void storeCursor() throws JSONException {
+        String filterKey = cursors.filterKey(new JSONArray(REQUEST));
+        cursors.rows.put(URL + " " + filterKey, new long[] {CURSOR, 500, 250000});
+    }
+
+    private static long since(String request) throws JSONException {
+        return new JSONArray(request).getJSONObject(2).getLong("since");
+    }
+}
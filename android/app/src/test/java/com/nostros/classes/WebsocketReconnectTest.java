@@ -0,0 +1,154 @@
+package com.nostros.classes;
+
+import com.neovisionaries.ws.client.WebSocket;
+import com.neovisionaries.ws.client.WebSocketAdapter;
+import com.neovisionaries.ws.client.WebSocketException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+// Outbound frames and calls from JS must not bypass the reconnect backoff or the open circuit.
+public class WebsocketReconnectTest {
+    // Nothing listens on port 1, so every connect fails right away without leaving the device.
+    private static final String URL = "ws://127.0.0.1:1";
+    private static final String EVENT = "[\"EVENT\",{\"id\":\"00\"}]";
+    private static final int FAILURES_TO_OPEN = 8;
+
+    // Connects on the calling thread and counts the sockets created for each attempt.
+    private static class CountingConnections extends ConnectionManager {
+        private final ReconnectScheduler reconnectScheduler;
+        int attempts;
+
+        CountingConnections(ScheduledExecutorService scheduler) {
+            reconnectScheduler = new ReconnectScheduler(scheduler);
+        }
+
+        @Override
+        public ReconnectScheduler getReconnectScheduler() {
+            return reconnectScheduler;
+        }
+
+        @Override
+        public WebSocket createSocket(String url, WebSocketAdapter listener) throws IOException {
+            attempts++;
+            return super.createSocket(url, listener);
+        }
+
+        @Override
+        public void connect(WebSocket socket, WebSocketAdapter listener) {
+            try {
+                socket.connect();
+            } catch (WebSocketException e) {
+                try {
+                    listener.onConnectError(socket, e);
+                } catch (Exception listenerException) {
+                    throw new AssertionError(listenerException);
+                }
+            }
+        }
+    }
+
+    // Keeps the reconnects the ReconnectScheduler schedules until the test runs them, so
+    // nothing but the code under test can connect and backoff delays pass instantly.
+    private static class ManualScheduler extends ScheduledThreadPoolExecutor {
+        private final List<Runnable> scheduled = new ArrayList<>();
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            scheduled.add(command);
+            return super.schedule(() -> { }, 1, TimeUnit.DAYS);
+        }
+
+        // Runs the latest scheduled task on the calling thread, earlier ones were superseded.
+        void runLatest() {
+            Runnable task = scheduled.get(scheduled.size() - 1);
+            scheduled.clear();
+            task.run();
+        }
+    }
+
+    private ManualScheduler scheduler;
+    private CountingConnections connections;
+    private Websocket websocket;
+
+    @Before
+    public void setUp() {
+        scheduler = new ManualScheduler();
+        connections = new CountingConnections(scheduler);
+        websocket = new Websocket(URL, null, null, null, connections, null);
+    }
+
+    @After
+    public void tearDown() {
+        connections.shutdown();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void sendDuringBackoffDoesNotConnect() throws IOException {
+        websocket.connect("pubkey");
+        assertEquals(ReconnectScheduler.State.BACKOFF, state());
+        assertEquals(1, connections.attempts);
+
+        websocket.send(EVENT);
+        websocket.send(EVENT);
+
+        assertEquals(ReconnectScheduler.State.BACKOFF, state());
+        assertEquals(1, connections.attempts);
+        assertEquals(2, websocket.getOutbound().getDepth());
+    }
+
+    @Test
+    public void connectDuringBackoffWaitsForScheduledAttempt() throws IOException {
+        websocket.connect("pubkey");
+        websocket.connect("pubkey");
+
+        assertEquals(ReconnectScheduler.State.BACKOFF, state());
+        assertEquals(1, connections.attempts);
+
+        scheduler.runLatest();
+
+        assertEquals(ReconnectScheduler.State.BACKOFF, state());
+        assertEquals(2, connections.attempts);
+    }
+
+    @Test
+    public void sendWhileCircuitOpenDoesNotConnect() throws IOException {
+        websocket.connect("pubkey");
+        for (int i = 1; i < FAILURES_TO_OPEN; ++i) {
+            scheduler.runLatest();
+        }
+        assertEquals(ReconnectScheduler.State.OPEN, state());
+        assertEquals(FAILURES_TO_OPEN, connections.attempts);
+
+        websocket.send(EVENT);
+        websocket.connect("pubkey");
+
+        assertEquals(ReconnectScheduler.State.OPEN, state());
+        assertEquals(FAILURES_TO_OPEN, connections.attempts);
+    }
+
+    private ReconnectScheduler.State state() {
+        for (ReconnectScheduler.RelayState relayState : connections.getReconnectScheduler().getStates()) {
+            if (relayState.url.equals(URL)) {
+                return relayState.state;
+            }
+        }
+        return null;
+    }
+}
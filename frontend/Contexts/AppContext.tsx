@@ -1,6 +1,7 @@
 import React, { useEffect, useRef, useState } from 'react'
 import { type QuickSQLiteConnection } from 'react-native-quick-sqlite'
 import { initDatabase } from '../Functions/DatabaseFunctions'
+import DatabaseModule from '../lib/Native/DatabaseModule'
 import SInfo from 'react-native-sensitive-info'
 import { AppState, Linking, NativeModules, Platform, StyleSheet } from 'react-native'
 import { Text } from 'react-native-paper'
@@ -26,6 +27,8 @@ export interface Config {
 export interface AppContextProps {
   init: () => void
   loadingDb: boolean
+  databaseError?: string
+  retryDatabase: () => void
   database: QuickSQLiteConnection | null
   notificationSeenAt: number
   setNotificationSeenAt: (unix: number) => void
@@ -69,6 +72,7 @@ export interface AppContextProviderProps {
 export const initialAppContext: AppContextProps = {
   init: () => {},
   loadingDb: true,
+  retryDatabase: () => {},
   database: null,
   notificationSeenAt: 0,
   setNotificationSeenAt: () => {},
@@ -126,6 +130,7 @@ export const AppContextProvider = ({ children }: AppContextProviderProps): JSX.E
   const [satoshi, setSatoshi] = React.useState<'kebab' | 'sats'>(initialAppContext.satoshi)
   const [database, setDatabase] = useState<QuickSQLiteConnection | null>(null)
   const [loadingDb, setLoadingDb] = useState<boolean>(initialAppContext.loadingDb)
+  const [databaseError, setDatabaseError] = useState<string>()
   const [clipboardLoads, setClipboardLoads] = React.useState<string[]>([])
   const [clipboardNip21, setClipboardNip21] = React.useState<string>()
   const [pushedTab, setPushedTab] = useState<string>()
@@ -157,12 +162,24 @@ export const AppContextProvider = ({ children }: AppContextProviderProps): JSX.E
     i18next.changeLanguage(language)
   }, [language])
 
+  // The native side opens and migrates the database in the background, calling again retries a failed open
+  const retryDatabase: () => void = () => {
+    setDatabaseError(undefined)
+    DatabaseModule.ready((error) => {
+      if (error) {
+        setDatabaseError(error)
+      } else {
+        setLoadingDb(false)
+      }
+    })
+  }
+
   const init: () => void = () => {
     const db = initDatabase()
     setDatabase(db)
 
     SInfo.getItem('publicKey', {}).then((value) => {
-      setLoadingDb(false)
+      retryDatabase()
     })
 
     SInfo.getItem('config', {}).then((result) => {
@@ -256,6 +273,8 @@ export const AppContextProvider = ({ children }: AppContextProviderProps): JSX.E
         getImageHostingService,
         init,
         loadingDb,
+        databaseError,
+        retryDatabase,
         database,
         notificationSeenAt,
         setNotificationSeenAt,
@@ -44,6 +44,14 @@ export interface WebsocketEvent {
   description?: string
   invoice?: string
 }
+export interface WebsocketBatch {
+  eventIds: string[]
+  eventSubscriptions: string[][]
+  notifications: WebsocketEvent[]
+  confirmations: string[]
+  eoses: Array<{ subId: string; url: string }>
+  backfillComplete: string[]
+}
 export interface PayEvent {
   invoice: string
   url?: string
@@ -209,6 +217,16 @@ export const RelayPoolContextProvider = ({
     [setLastConfirmationId],
   )
 
+  const batchHandler: (batch: WebsocketBatch) => void = (batch) => {
+    if (batch.eventIds.length > 0) {
+      debouncedEventIdHandler({ eventId: batch.eventIds[batch.eventIds.length - 1] })
+    }
+    if (batch.confirmations.length > 0) {
+      debouncedConfirmationHandler({ eventId: batch.confirmations[batch.confirmations.length - 1] })
+    }
+    batch.notifications.forEach(changeNotificationHandler)
+  }
+
   const loadRelayPool: () => void = async () => {
     if (database && publicKey) {
       const initRelayPool = new RelayPool(online, privateKey)
@@ -306,6 +324,7 @@ export const RelayPoolContextProvider = ({
       DeviceEventEmitter.addListener('WebsocketConfirmation', debouncedConfirmationHandler)
       DeviceEventEmitter.addListener('WebsocketAuth', debouncedAuthdHandler)
       DeviceEventEmitter.addListener('WebsocketNotification', changeNotificationHandler)
+      DeviceEventEmitter.addListener('WebsocketBatch', batchHandler)
       // DeviceEventEmitter.addListener('WebsocketPay', payHandler)
       loadRelayPool()
     }
@@ -1,5 +1,5 @@
 import { type QuickSQLiteConnection } from 'react-native-quick-sqlite'
-import { getItems } from '..'
+import { blobLiteral, getItems } from '..'
 import { type Event, evetDatabaseToEntity } from '../../../lib/nostr/Events'
 
 export interface Note extends Event {
@@ -132,9 +132,9 @@ export const getNoteRelays: (
 ) => Promise<NoteRelay[]> = async (db, noteId) => {
   const relaysQuery = `
     SELECT
-      *
+      lower(hex(note_id)) AS note_id, lower(hex(pubkey)) AS pubkey, relay_url
     FROM nostros_notes_relays
-    WHERE note_id = "${noteId}"
+    WHERE note_id = ${blobLiteral(noteId)}
     ORDER BY relay_url
   `
   const resultSet = db.execute(relaysQuery)
@@ -334,6 +334,64 @@ export const getRawUserNotes: (
   return notes
 }
 
+// nostros_event_tags is filled in for notes stored before it existed by a background rebuild
+export const isEventTagsIndexed: (db: QuickSQLiteConnection) => Promise<boolean> = async (db) => {
+  const resultSet = db.execute('SELECT COUNT(*) AS pending FROM nostros_event_tags_rebuild')
+  const items: object[] = getItems(resultSet)
+  const result = items[0] as { pending: number } | undefined
+
+  return result?.pending === 0
+}
+
+// Notes with any of the values in a single-letter tag, looked up in nostros_event_tags,
+// plus the ones whose content contains `content` when given
+export const getTaggedNotes: (
+  db: QuickSQLiteConnection,
+  name: string,
+  values: string[],
+  content?: string,
+  limit?: number,
+) => Promise<Note[]> = async (db, name, values, content, limit) => {
+  if (values.length === 0 && !content) return []
+
+  // Hashtags are stored lower-cased, see EventTags.normalize
+  const tagValues = name === 't' ? values.map((value) => value.toLowerCase()) : values
+  const conditions: string[] = []
+  const args: string[] = []
+  if (tagValues.length > 0) {
+    conditions.push(`nostros_notes.id IN (
+      SELECT event_id FROM nostros_event_tags
+      WHERE name = ? AND value IN (${tagValues.map(() => '?').join(', ')}) AND kind IN (1, 2)
+    )`)
+    args.push(name, ...tagValues)
+  }
+  if (content) {
+    conditions.push("nostros_notes.content LIKE ? ESCAPE '\\'")
+    args.push(`%${content.replace(/[\\%_]/g, (char) => `\\${char}`)}%`)
+  }
+
+  let notesQuery = `
+    SELECT
+      nostros_notes.*, nostros_users.zap_pubkey, nostros_users.nip05, nostros_users.valid_nip05, 
+      nostros_users.ln_address, nostros_users.lnurl, nostros_users.name, nostros_users.picture, 
+      nostros_users.contact, nostros_users.created_at as user_created_at FROM nostros_notes
+    LEFT JOIN
+      nostros_users ON nostros_users.id = nostros_notes.pubkey
+    WHERE ${conditions.join(' OR ')}
+    ORDER BY created_at DESC
+  `
+
+  if (limit) {
+    notesQuery += `LIMIT ${limit}`
+  }
+
+  const resultSet = db.execute(notesQuery, args)
+  const items: object[] = getItems(resultSet)
+  const notes: Note[] = items.map((object) => databaseToEntity(object))
+
+  return notes
+}
+
 export const getNotes: (
   db: QuickSQLiteConnection,
   options: {
@@ -1,5 +1,5 @@
 import { type QuickSQLiteConnection } from 'react-native-quick-sqlite'
-import { getItems } from '..'
+import { blobLiteral, getItems } from '..'
 import { type Relay } from '../Relays'
 
 export interface NoteRelay extends Relay {
@@ -16,11 +16,14 @@ export const getUserRelays: (
   pubKey: string,
 ) => Promise<NoteRelay[]> = async (db, pubKey) => {
   const query = `
-    SELECT * FROM nostros_notes_relays LEFT JOIN
+    SELECT nostros_relays.*, nostros_notes_relays.relay_url,
+      lower(hex(nostros_notes_relays.note_id)) AS note_id,
+      lower(hex(nostros_notes_relays.pubkey)) AS pubkey
+    FROM nostros_notes_relays LEFT JOIN
       nostros_relays ON nostros_relays.url = nostros_notes_relays.relay_url
-    WHERE pubkey = ? GROUP BY relay_url
+    WHERE nostros_notes_relays.pubkey = ${blobLiteral(pubKey)} GROUP BY nostros_notes_relays.relay_url
   `
-  const resultSet = db.execute(query, [pubKey])
+  const resultSet = db.execute(query)
   if (resultSet.rows && resultSet.rows.length > 0) {
     const items: object[] = getItems(resultSet)
     const users: NoteRelay[] = items.map((object) => databaseToEntity(object))
@@ -37,7 +40,7 @@ export const getNoteRelaysUsage: (
   const query = `
     SELECT relay_url, COUNT(*) as count FROM nostros_notes_relays 
     LEFT JOIN
-      nostros_users ON nostros_users.id = nostros_notes_relays.pubkey
+      nostros_users ON nostros_users.id = lower(hex(nostros_notes_relays.pubkey))
     WHERE nostros_users.contact > 0
     GROUP BY relay_url
   `
@@ -56,11 +59,11 @@ export const getNoteRelaysPresence: (
 ) => Promise<Record<string, string[]>> = async (db) => {
   const result: Record<string, string[]> = {}
   const query = `
-    SELECT relay_url, pubkey FROM nostros_notes_relays 
+    SELECT relay_url, lower(hex(nostros_notes_relays.pubkey)) AS pubkey FROM nostros_notes_relays 
     LEFT JOIN
-      nostros_users ON nostros_users.id = nostros_notes_relays.pubkey
+      nostros_users ON nostros_users.id = lower(hex(nostros_notes_relays.pubkey))
     WHERE nostros_users.contact > 0
-    GROUP BY relay_url, pubkey
+    GROUP BY relay_url, nostros_notes_relays.pubkey
     ORDER BY random()
   `
   const resultSet = db.execute(query)
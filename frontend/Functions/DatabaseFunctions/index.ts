@@ -6,7 +6,15 @@ import {
 } from 'react-native-quick-sqlite'
 
 export const initDatabase: () => QuickSQLiteConnection = () => {
-  return open({ name: 'nostros.sqlite' })
+  const db = open({ name: 'nostros.sqlite' })
+  // The native writer holds the WAL write lock during ingest batches; wait for it instead of failing
+  db.execute('PRAGMA busy_timeout = 3000;')
+  return db
+}
+
+// nostros_notes_relays stores note ids and pubkeys as 32-byte blobs
+export const blobLiteral: (hex: string) => string = (hex) => {
+  return /^[0-9a-fA-F]{64}$/.test(hex) ? `X'${hex}'` : "X''"
 }
 
 export const getItems: (resultSet: QueryResult) => object[] = (resultSet) => {
@@ -40,6 +48,9 @@ export const dropTables: (db: QuickSQLiteConnection) => Promise<BatchQueryResult
     ['DELETE FROM nostros_group_meta;', [[]]],
     ['DELETE FROM nostros_group_messages;', [[]]],
     ['DELETE FROM nostros_notifications;', [[]]],
+    ['DELETE FROM nostros_event_tags;', [[]]],
+    ['DELETE FROM nostros_relay_cursors;', [[]]],
+    ['DELETE FROM nostros_counts;', [[]]],
   ]
   return db.executeBatch(dropQueries)
 }
@@ -1,16 +1,20 @@
 import { createDrawerNavigator } from '@react-navigation/drawer'
 import React, { useContext } from 'react'
+import { useTranslation } from 'react-i18next'
 import { StyleSheet, View } from 'react-native'
-import { useTheme } from 'react-native-paper'
+import { Button, Text, useTheme } from 'react-native-paper'
 import Logo from '../../Components/Logo'
 import MenuItems from '../../Components/MenuItems'
+import { AppContext } from '../../Contexts/AppContext'
 import { UserContext } from '../../Contexts/UserContext'
 import FeedNavigator from '../FeedNavigator'
 import HomeNavigator from '../HomeNavigator'
 
 export const NostrosDrawerNavigator: React.FC = () => {
   const theme = useTheme()
+  const { t } = useTranslation('common')
   const { userState } = useContext(UserContext)
+  const { databaseError, retryDatabase } = useContext(AppContext)
 
   const DrawerNavigator = createDrawerNavigator()
 
@@ -45,6 +49,15 @@ export const NostrosDrawerNavigator: React.FC = () => {
   ) : (
     <View style={[styles.logo, { backgroundColor: theme.colors.background }]}>
       <Logo size='big' />
+      {databaseError && (
+        <View style={styles.error}>
+          <Text style={{ color: theme.colors.error }}>{t('loadingPage.databaseError')}</Text>
+          <Text variant='bodySmall'>{databaseError}</Text>
+          <Button mode='contained' onPress={retryDatabase}>
+            {t('loadingPage.retry')}
+          </Button>
+        </View>
+      )}
     </View>
   )
 }
@@ -56,6 +69,10 @@ const styles = StyleSheet.create({
     flex: 1,
     paddingLeft: 90,
   },
+  error: {
+    marginTop: 16,
+    marginRight: 90,
+  },
 })
 
 export default NostrosDrawerNavigator
@@ -18,12 +18,21 @@ import NoteCard from '../../Components/NoteCard'
 import ProfileData from '../../Components/ProfileData'
 import { AppContext } from '../../Contexts/AppContext'
 import { RelayPoolContext } from '../../Contexts/RelayPoolContext'
-import { getNotes, type Note } from '../../Functions/DatabaseFunctions/Notes'
+import {
+  getNotes,
+  getTaggedNotes,
+  isEventTagsIndexed,
+  type Note,
+} from '../../Functions/DatabaseFunctions/Notes'
 import { getUsers, type User } from '../../Functions/DatabaseFunctions/Users'
 import { validNip21 } from '../../Functions/NativeFunctions'
 import { goBack, navigate } from '../../lib/Navigation'
 import { getNpub } from '../../lib/nostr/Nip19'
 
+const getHashtags: (search: string) => string[] = (search) => {
+  return [...search.matchAll(/#([^#\s]+)/g)].map((match) => match[1])
+}
+
 interface SearchPageProps {
   route: { params: { search: string } }
 }
@@ -58,13 +67,20 @@ export const SearchPage: React.FC<SearchPageProps> = ({ route }) => {
 
   React.useEffect(() => {
     if (database && /^#.*/.test(searchInput)) {
-      const search = searchInput.toLocaleLowerCase()
-      getNotes(database, {}).then((results) => {
-        if (results.length > 0) {
-          setNotes(results)
-          setResultsNotes(
-            results.filter((note) => note.content.toLocaleLowerCase().includes(search.trim())),
-          )
+      const search = searchInput.toLocaleLowerCase().trim()
+      isEventTagsIndexed(database)
+        .then(async (indexed) => {
+          if (indexed) {
+            return await getTaggedNotes(database, 't', getHashtags(searchInput), search)
+          }
+          // Older notes are still being indexed, search the content of every note meanwhile
+          return await getNotes(database, {}).then((results) => {
+            setNotes(results)
+            return results.filter((note) => note.content.toLocaleLowerCase().includes(search))
+          })
+        })
+        .then((results) => {
+          setResultsNotes(results)
           if (results.length > 0) {
             relayPool?.subscribe('search-hastags-metadata', [
               {
@@ -73,10 +89,9 @@ export const SearchPage: React.FC<SearchPageProps> = ({ route }) => {
               },
             ])
           }
-        }
-      })
+        })
     }
-  }, [lastEventId, online])
+  }, [searchInput, lastEventId, online])
 
   const subscribeHandler = React.useMemo(
     () =>
@@ -94,9 +109,8 @@ export const SearchPage: React.FC<SearchPageProps> = ({ route }) => {
 
   React.useEffect(() => {
     if (/^#.*/.test(searchInput)) {
-      const hastags = [...searchInput.matchAll(/#([^#]\S+)/gi)].map((match) => {
-        return match[1]
-      })
+      const tags = getHashtags(searchInput)
+      const hastags = [...new Set([...tags, ...tags.map((tag) => tag.toLowerCase())])]
       if (hastags.length > 0) {
         subscribeHandler(hastags)
       }
@@ -113,7 +127,7 @@ export const SearchPage: React.FC<SearchPageProps> = ({ route }) => {
             user.nip05?.toLocaleLowerCase().includes(searchUser),
         ),
       )
-    } else {
+    } else if (!/^#.*/.test(searchInput)) {
       const search = searchInput.toLocaleLowerCase()
       setResultsNotes(
         notes.filter((note) => note.content.toLocaleLowerCase().includes(search.trim())),
@@ -2,6 +2,8 @@ import { NativeModules } from 'react-native'
 const { DatabaseModule } = NativeModules
 
 interface DatabaseModuleInterface {
+  ready: (callback: (error?: string) => void) => void
+  rebuildEventTags: (callback: (events: number) => void) => void
   updateConversationRead: (conversationId: string) => void
   updateAllDirectMessagesRead: () => void
   updateUserContact: (userId: string, contact: boolean, callback: () => void) => void
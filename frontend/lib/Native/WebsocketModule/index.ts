@@ -1,6 +1,136 @@
 import { NativeModules } from 'react-native'
 const { RelayPoolModule } = NativeModules
 
+export interface DedupStats {
+  size: number
+  hits: number
+  misses: number
+  evictions: number
+  hitRate: number
+}
+
+export interface VerifierStats {
+  workers: number
+  queueDepth: number
+  verified: number
+  rejected: number
+  known: number
+  averageVerifyMicros: number
+  savedCpuMs: number
+}
+
+export interface CursorStats {
+  boundedRequests: number
+  savedEvents: number
+  savedBytes: number
+}
+
+export interface MatcherStats {
+  filters: number
+  matched: number
+  dropped: number
+}
+
+export interface CountStats {
+  requests: number
+  cacheHits: number
+  fallbacks: number
+}
+
+export interface StorageStats {
+  compiledStatements: number
+  saves: number
+  averageSaveMicros: number
+  schemaVersion: number
+  migratedFrom: number
+  openMs: number
+  databaseBytes: number
+  eventTagsRebuilding: boolean
+  eventTagsRebuilt: number
+  journalMode: string
+  lockWaits: number
+  averageLockWaitMs: number
+  maxLockWaitMs: number
+  checkpoints: number
+  averageCheckpointMs: number
+  walFrames: number
+}
+
+export interface StartupStats {
+  firstFrameMs: number
+  databaseReadyMs: number
+}
+
+export interface CountResult {
+  count: number
+  approximate: boolean
+  cached: boolean
+  relays: number
+  fallbacks: number
+}
+
+export interface PipelineStats {
+  dedup: DedupStats
+  verifier: VerifierStats
+  cursors: CursorStats
+  matcher: MatcherStats
+  counts: CountStats
+  storage: StorageStats
+  startup: StartupStats
+}
+
+export interface RelayState {
+  url: string
+  state: 'disconnected' | 'connecting' | 'connected' | 'backoff' | 'open'
+  failures: number
+  retryInMs: number
+  parked?: boolean
+  queueDepth?: number
+  queuedBytes?: number
+  dropped?: number
+  lastFlushLatencyMs?: number
+  averageFlushLatencyMs?: number
+}
+
+export interface RelayStats {
+  url: string
+  connects: number
+  connectLatencyMs: number
+  averageConnectLatencyMs: number
+  pongs: number
+  rttMs: number
+  averageRttMs: number
+  events: number
+  duplicates: number
+  duplicateRatio: number
+  bytes: number
+  wireBytes: number
+  compressed: number
+  invalid: number
+  unmatched: number
+  negentropySessions: number
+  negentropyFallbacks: number
+  negentropyNeed: number
+  negentropyHave: number
+  firstEoseMs: number
+  averageFirstEoseMs: number
+  firstEoses: number
+  uptimeMs: number
+  eventsPerSecond: number
+  bytesPerSecond: number
+}
+
+export interface ConnectionStats {
+  foreground: boolean
+  pingIntervalMs: number
+  idleTimeoutMs: number
+  sockets: number
+  open: number
+  socketThreads: number
+  sharedThreads: number
+  processThreads: number
+}
+
 interface RelayPoolInterface {
   sendAll: (message: string, globalFeed: boolean) => void
   sendRelay: (message: string, relayUrl: string) => void
@@ -14,9 +144,29 @@ interface RelayPoolInterface {
     active: number,
     globalfeed: number,
     paid: number,
-    callback?: () => void,
+    callback?: (error?: string) => void,
   ) => void
   onEventId: (callback: (eventId: string) => void) => void
+  getRelayStats: (callback: (stats: RelayStats[]) => void) => void
+  getRelayStates: (callback: (states: RelayState[]) => void) => void
+  getConnectionStats: (callback: (stats: ConnectionStats) => void) => void
+  configureEmitter: (windowMs: number, maxBatch: number) => void
+  setCursorOverlap: (seconds: number) => void
+  configureKeepalive: (
+    foregroundIntervalMs: number,
+    backgroundIntervalMs: number,
+    idleTimeoutMs: number,
+  ) => void
+  setCompression: (url: string, compression: number, callback: (error?: string) => void) => void
+  count: (
+    subId: string,
+    filter: string,
+    maxAgeSeconds: number,
+    callback: (result: CountResult) => void,
+  ) => void
+  negentropySync: (subId: string, filter: string, isGlobalFeed: boolean) => void
+  setRoutingMode: (mode: 'broadcast' | 'outbox', redundancy: number) => void
+  getPipelineStats: (callback: (stats: PipelineStats) => void) => void
 }
 
 export default RelayPoolModule as RelayPoolInterface
@@ -120,7 +120,7 @@ class RelayPool {
     active: number,
     globalfeed: number,
     paid: number,
-    callback?: () => void,
+    callback?: (error?: string) => void,
   ) => void = async (relayUrl, active, globalfeed, paid, callback = () => {}) => {
     RelayPoolModule.update(relayUrl, active, globalfeed, paid, callback)
   }